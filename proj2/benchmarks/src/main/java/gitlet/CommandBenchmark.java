@@ -0,0 +1,177 @@
+package gitlet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of gitlet commands on generated repositories, reporting operations per second
+ * and, through the GC profiler, bytes allocated per second and per operation.
+ * <p></p>
+ * Build with "mvn package" in proj2/benchmarks, then run e.g.
+ * <pre>
+ *     java -jar target/benchmarks.jar
+ *     java -jar target/benchmarks.jar status log -p files=100,10000 -p depth=1000
+ * </pre>
+ * Arguments are those of JMH. The shape of the repository is set by the parameters files, fileSize,
+ * depth and branches, see SyntheticRepository. Every benchmark runs in a JVM of its own, with a
+ * repository of its own, since gitlet reads its working directory only once; so do not run them
+ * with -f 0.
+ *
+ * @author Sol1tudeRain
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+
+    /**
+     * The generated repository, shared by all invocations of a benchmark
+     */
+    @State(Scope.Benchmark)
+    public static class Repo {
+        @Param({"1000"})
+        public int files;
+        @Param({"1024"})
+        public int fileSize;
+        @Param({"100"})
+        public int depth;
+        @Param({"4"})
+        public int branches;
+
+        SyntheticRepository repository;
+        String master;
+        String b0;
+
+        @Setup(Level.Trial)
+        public void create() throws IOException {
+            repository = SyntheticRepository.create(files, fileSize, depth, branches);
+            gitlet.State gitletState = MyUtils.getState();
+            master = gitletState.branches.get("master");
+            b0 = gitletState.branches.get(SyntheticRepository.branch(0));
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            repository.close();
+        }
+    }
+
+    /**
+     * Rewrites one of the first few files before each invocation
+     */
+    @State(Scope.Benchmark)
+    public static class Edited {
+        int round;
+        String path;
+
+        @Setup(Level.Invocation)
+        public void edit(Repo repo) throws IOException {
+            int i = round % Math.min(repo.files, 16);
+            round += 1;
+            repo.repository.write(i);
+            path = SyntheticRepository.path(i);
+        }
+    }
+
+    /**
+     * Rewrites and stages one file before each invocation
+     */
+    @State(Scope.Benchmark)
+    public static class Staged {
+        int round;
+
+        @Setup(Level.Invocation)
+        public void stage(Repo repo, Edited edited) {
+            round += 1;
+            repo.repository.run("add", edited.path);
+        }
+    }
+
+    /**
+     * Moves master back to where it was generated before each invocation
+     */
+    @State(Scope.Benchmark)
+    public static class Unmerged {
+        @Setup(Level.Invocation)
+        public void reset(Repo repo) {
+            repo.repository.run("reset", repo.master);
+        }
+    }
+
+    /**
+     * Which branch to check out next
+     */
+    @State(Scope.Benchmark)
+    public static class Toggle {
+        boolean onBranch;
+    }
+
+    @Benchmark
+    public void add(Repo repo, Edited edited) {
+        Main.run(new String[]{"add", edited.path});
+    }
+
+    @Benchmark
+    public void commit(Repo repo, Staged staged) {
+        Main.run(new String[]{"commit", "benchmark " + staged.round});
+    }
+
+    @Benchmark
+    public void status(Repo repo) {
+        Main.run(new String[]{"status"});
+    }
+
+    @Benchmark
+    public void log(Repo repo) {
+        Main.run(new String[]{"log"});
+    }
+
+    @Benchmark
+    public void checkoutBranch(Repo repo, Toggle toggle) {
+        toggle.onBranch = !toggle.onBranch;
+        Main.run(new String[]{"checkout", toggle.onBranch ? SyntheticRepository.branch(0) : "master"});
+    }
+
+    @Benchmark
+    public void merge(Repo repo, Unmerged unmerged) {
+        Main.run(new String[]{"merge", SyntheticRepository.branch(0)});
+    }
+
+    @Benchmark
+    public Commit getSplitPoint(Repo repo) {
+        return MyUtils.getSplitPoint(repo.master, repo.b0);
+    }
+
+    @Benchmark
+    public void find(Repo repo) {
+        Main.run(new String[]{"find", "commit " + repo.depth / 2});
+    }
+
+    /**
+     * Run the benchmarks selected by the JMH arguments in ARGS, with the GC profiler.
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * A gitlet repository of generated files and history, built in a temporary directory for the benchmarks.
+ * <p></p>
+ * The repository has FILES files of FILESIZE bytes, spread over directories of at most 100 files,
+ * DEPTH commits on master after the first one, each changing about one file in a hundred, and BRANCHES
+ * branches b0, b1, ... that fork from the middle of master and add one commit each.
+ * Commit i on master has the message "commit i". The same seed always gives the same repository.
+ * <p></p>
+ * gitlet reads its working directory once, when Repository is loaded, so create must be called
+ * before anything else touches gitlet in this JVM, and only once. JMH runs each benchmark in a new JVM.
+ *
+ * @author Sol1tudeRain
+ */
+class SyntheticRepository {
+
+    private static final long SEED = 61;
+
+    /**
+     * The directory of the repository
+     */
+    final Path dir;
+
+    final int files;
+    final int fileSize;
+    final int depth;
+    final int branches;
+
+    private final Random random = new Random(SEED);
+
+    /**
+     * The standard output gitlet prints to while the repository is in use
+     */
+    private final PrintStream stdout = System.out;
+
+    private SyntheticRepository(Path dir, int files, int fileSize, int depth, int branches) {
+        this.dir = dir;
+        this.files = files;
+        this.fileSize = fileSize;
+        this.depth = depth;
+        this.branches = branches;
+    }
+
+    /**
+     * Build a repository with the given shape in a new temporary directory, and make it
+     * the working directory of gitlet. Output of gitlet commands is discarded until close.
+     */
+    static SyntheticRepository create(int files, int fileSize, int depth, int branches) throws IOException {
+        Path dir = Files.createTempDirectory("gitlet-bench").toRealPath();
+        System.setProperty("user.dir", dir.toString());
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        SyntheticRepository repo = new SyntheticRepository(dir, files, fileSize, depth, branches);
+        repo.run("init");
+        for (int i = 0; i < files; i += 1) {
+            repo.write(i);
+        }
+        repo.run("add", ".");
+        repo.run("commit", "commit 0");
+        for (int c = 1; c <= depth; c += 1) {
+            if (c == depth / 2 + 1) {
+                repo.fork();
+            }
+            repo.change("commit " + c);
+        }
+        if (depth == 0) {
+            repo.fork();
+        }
+        return repo;
+    }
+
+    /**
+     * Create the branches at HEAD, each with one commit of its own, and return to master.
+     */
+    private void fork() throws IOException {
+        for (int b = 0; b < branches; b += 1) {
+            run("branch", branch(b));
+            run("checkout", branch(b));
+            change("commit on " + branch(b));
+            run("checkout", "master");
+        }
+    }
+
+    /**
+     * Rewrite about one file in a hundred, add them, and commit with MESSAGE.
+     */
+    private void change(String message) throws IOException {
+        int count = Math.max(1, files / 100);
+        String[] args = new String[count + 1];
+        args[0] = "add";
+        for (int k = 1; k <= count; k += 1) {
+            int i = random.nextInt(files);
+            write(i);
+            args[k] = path(i);
+        }
+        run(args);
+        run("commit", message);
+    }
+
+    /**
+     * The name of branch B.
+     */
+    static String branch(int b) {
+        return "b" + b;
+    }
+
+    /**
+     * The path of file I, relative to the repository.
+     */
+    static String path(int i) {
+        return "d" + (i / 100) + "/f" + i + ".txt";
+    }
+
+    /**
+     * Give file I new random contents of fileSize bytes, in lines of printable characters.
+     */
+    void write(int i) throws IOException {
+        byte[] contents = new byte[fileSize];
+        for (int k = 0; k < contents.length; k += 1) {
+            contents[k] = k % 64 == 63 ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+        }
+        Path file = dir.resolve(path(i));
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents);
+    }
+
+    /**
+     * Run the gitlet command in ARGS, which is expected to print nothing, and fail if it prints anything,
+     * such as an error.
+     */
+    void run(String... args) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        try {
+            Main.run(args);
+        } finally {
+            System.setOut(out);
+        }
+        if (bytes.size() > 0) {
+            throw new IllegalStateException(String.join(" ", args) + ": " + bytes.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Restore standard output and delete the repository.
+     */
+    void close() throws IOException {
+        System.setOut(stdout);
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Finds the commit that last changed each line of a file, for the blame command.
+ * <p></p>
+ * Blame starts with the lines of the file in the head commit and walks history back through the
+ * commit graph, the highest generation first, so that a commit is only looked at after all of its
+ * children. Each commit hands the lines it holds on to its parents: all of them to a parent whose
+ * version of the file has the same blob ID, without reading either version, and otherwise the lines that
+ * a diff matches with each parent's version in turn. The lines that no parent takes were changed by the
+ * commit. So only commits that changed the file are diffed, and every other commit costs a lookup in the
+ * trees of its parents. History is followed through merges, and stops at commits that lack the file.
+ * <p></p>
+ * Results are kept in BLAME_DIR, one file per blamed commit and path, named by the commit ID and the
+ * SHA-1 value of the path:
+ * <pre>
+ *     path | commit count | commit IDs | line count | (index of the commit of the line) * count
+ * </pre>
+ * A walk that reaches a commit with a result takes the origins of its lines from there, so blaming a
+ * file again after a few more commits only walks those. Like the index, results are only written
+ * when no one else is writing to the repository. gc deletes the results of the commits it deletes.
+ *
+ * @author Sol1tudeRain
+ */
+class Blame {
+
+    /**
+     * "GLB", the magic number of a blame result, and the current encoding version
+     */
+    private static final int MAGIC = 0x474c42;
+    private static final int VERSION = 1;
+
+    /**
+     * The lines of the blamed file held by a commit that has not been looked at yet
+     */
+    private static class Pending {
+        final String blobID;
+        byte[] contents;
+
+        /**
+         * Line numbers in the blamed file, and those of the same lines in this commit's version
+         */
+        int[] lines = new int[16];
+        int[] localLines = new int[16];
+        int size;
+
+        Pending(String blobID) {
+            this.blobID = blobID;
+        }
+
+        void add(int line, int localLine) {
+            if (size == lines.length) {
+                lines = Arrays.copyOf(lines, size * 2);
+                localLines = Arrays.copyOf(localLines, size * 2);
+            }
+            lines[size] = line;
+            localLines[size] = localLine;
+            size += 1;
+        }
+
+        byte[] contents() {
+            if (contents == null) {
+                contents = ObjectStore.readBlob(blobID);
+            }
+            return contents;
+        }
+    }
+
+    /**
+     * Print every line of FILENAME as it is in the head commit, after the abbreviated ID
+     * of the commit that last changed it and its line number.
+     */
+    static void blame(String fileName) {
+        State gitletState = getState();
+        Commit head = getCommit(gitletState.HEAD);
+        String blobID = head.trackedFiles.get(fileName);
+        if (blobID == null) {
+            throw error("File does not exist in that commit.");
+        }
+        byte[] contents = ObjectStore.readBlob(blobID);
+        Diff.Lines lines = new Diff.Table().split(contents);
+
+        Set<String> stored = new HashSet<>();
+        String[] names = BLAME_DIR.list();
+        if (names != null) {
+            stored.addAll(Arrays.asList(names));
+        }
+        String[] origins = stored.contains(resultName(head.UID, fileName)) ? read(head.UID, fileName) : null;
+        if (origins == null || origins.length != lines.size()) {
+            origins = walk(head.UID, fileName, blobID, contents, lines.size(), stored);
+            if (WriterLock.tryAcquire()) {
+                BLAME_DIR.mkdir();
+                Journal.write(join(BLAME_DIR, resultName(head.UID, fileName)), encode(fileName, origins));
+            }
+        }
+
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        int width = Integer.toString(lines.size()).length();
+        try {
+            for (int i = 0; i < lines.size(); i += 1) {
+                String prefix = String.format("%s %" + width + "d) ", origins[i].substring(0, 7), i + 1);
+                out.write(prefix.getBytes(StandardCharsets.UTF_8));
+                out.write(lines.data, lines.starts[i], lines.starts[i + 1] - lines.starts[i]);
+                if (lines.data[lines.starts[i + 1] - 1] != '\n') {
+                    out.write('\n');
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return the ID of the commit that last changed each of the COUNT lines of FILENAME, whose version
+     * in the commit STARTID is the blob BLOBID with the given CONTENTS. STORED holds the names of
+     * the results in BLAME_DIR.
+     */
+    private static String[] walk(String startID, String fileName, String blobID, byte[] contents,
+                                 int count, Set<String> stored) {
+        String[] origins = new String[count];
+        CommitGraph graph = CommitGraph.get();
+        Map<Integer, Pending> pending = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                (a, b) -> Integer.compare(graph.generation(b), graph.generation(a)));
+
+        int start = graph.ensure(startID);
+        Pending first = new Pending(blobID);
+        first.contents = contents;
+        for (int i = 0; i < count; i += 1) {
+            first.add(i, i);
+        }
+        pending.put(start, first);
+        queue.add(start);
+
+        while (!queue.isEmpty()) {
+            int position = queue.poll();
+            Pending lines = pending.remove(position);
+            String commitID = graph.id(position);
+            if (position != start && stored.contains(resultName(commitID, fileName))) {
+                String[] result = read(commitID, fileName);
+                if (result != null) {
+                    for (int k = 0; k < lines.size; k += 1) {
+                        origins[lines.lines[k]] = result[lines.localLines[k]];
+                    }
+                    continue;
+                }
+            }
+
+            // The versions of the file in the parents, by position, in parent order.
+            Map<Integer, String> parents = new LinkedHashMap<>();
+            for (int which = 0; which < 2; which += 1) {
+                int parent = graph.parent(position, which);
+                if (parent >= 0) {
+                    String parentBlobID = getCommit(graph.id(parent)).trackedFiles.get(fileName);
+                    if (parentBlobID != null) {
+                        parents.put(parent, parentBlobID);
+                    }
+                }
+            }
+            Integer same = null;
+            for (Map.Entry<Integer, String> parent : parents.entrySet()) {
+                if (parent.getValue().equals(lines.blobID)) {
+                    same = parent.getKey();
+                    break;
+                }
+            }
+            if (same != null) {
+                Pending target = target(pending, queue, same, lines.blobID);
+                if (target.contents == null) {
+                    target.contents = lines.contents;
+                }
+                for (int k = 0; k < lines.size; k += 1) {
+                    target.add(lines.lines[k], lines.localLines[k]);
+                }
+                continue;
+            }
+
+            for (Map.Entry<Integer, String> parent : parents.entrySet()) {
+                if (lines.size == 0) {
+                    break;
+                }
+                Pending target = target(pending, queue, parent.getKey(), parent.getValue());
+                Diff.Table table = new Diff.Table();
+                Diff.Lines mine = table.split(lines.contents());
+                Diff.Lines theirs = table.split(target.contents());
+                int[] matches = Diff.match(table, mine, theirs);
+                Pending rest = new Pending(lines.blobID);
+                rest.contents = lines.contents;
+                for (int k = 0; k < lines.size; k += 1) {
+                    int match = matches[lines.localLines[k]];
+                    if (match >= 0) {
+                        target.add(lines.lines[k], match);
+                    } else {
+                        rest.add(lines.lines[k], lines.localLines[k]);
+                    }
+                }
+                lines = rest;
+            }
+            for (int k = 0; k < lines.size; k += 1) {
+                origins[lines.lines[k]] = commitID;
+            }
+        }
+        return origins;
+    }
+
+    /**
+     * Return the lines pending at the commit at POSITION, whose version of the file is BLOBID,
+     * queueing the commit if no lines are pending there yet.
+     */
+    private static Pending target(Map<Integer, Pending> pending, PriorityQueue<Integer> queue,
+                                  int position, String blobID) {
+        Pending target = pending.get(position);
+        if (target == null) {
+            target = new Pending(blobID);
+            pending.put(position, target);
+            queue.add(position);
+        }
+        return target;
+    }
+
+    /**
+     * Return the name of the result for FILENAME as of the commit COMMITID.
+     */
+    private static String resultName(String commitID, String fileName) {
+        return commitID + "-" + sha1(fileName);
+    }
+
+    private static byte[] encode(String fileName, String[] origins) {
+        Map<String, Integer> commits = new LinkedHashMap<>();
+        for (String commitID : origins) {
+            commits.putIfAbsent(commitID, commits.size());
+        }
+        Codec.Output out = new Codec.Output();
+        out.writeString(fileName);
+        out.writeVarint(commits.size());
+        for (String commitID : commits.keySet()) {
+            out.writeID(commitID);
+        }
+        out.writeVarint(origins.length);
+        for (String commitID : origins) {
+            out.writeVarint(commits.get(commitID));
+        }
+        return out.toByteArray(MAGIC, VERSION);
+    }
+
+    /**
+     * Return the origins of the lines of FILENAME as of the commit COMMITID, or null if
+     * there is no result for them.
+     */
+    private static String[] read(String commitID, String fileName) {
+        File file = join(BLAME_DIR, resultName(commitID, fileName));
+        if (!file.isFile()) {
+            return null;
+        }
+        Codec.Input in = new Codec.Input(readContents(file), MAGIC);
+        if (!in.readString().equals(fileName)) {
+            return null;
+        }
+        List<String> commits = new ArrayList<>();
+        int commitCount = in.readInt();
+        for (int i = 0; i < commitCount; i += 1) {
+            commits.add(in.readID());
+        }
+        String[] origins = new String[in.readInt()];
+        for (int i = 0; i < origins.length; i += 1) {
+            origins[i] = commits.get(in.readInt());
+        }
+        return origins;
+    }
+
+    /**
+     * Delete the results of the commits COMMITIDS, which are being deleted, when the batch is committed.
+     */
+    static void remove(Set<String> commitIDs) {
+        String[] names = BLAME_DIR.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            int dash = name.indexOf('-');
+            if (dash > 0 && commitIDs.contains(name.substring(0, dash))) {
+                Journal.delete(join(BLAME_DIR, name));
+            }
+        }
+    }
+}
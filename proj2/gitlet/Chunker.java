@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a stream into content-defined chunks, so that an insertion or deletion
+ * only changes the chunks around it and the others can be shared with other versions.
+ * <p></p>
+ * This is FastCDC: a gear hash is rolled over the bytes after the first MIN_SIZE of a chunk,
+ * and the chunk ends where the hash has all bits of a mask clear. Before AVG_SIZE a stricter mask
+ * is used and after it a looser one, which keeps chunk sizes close to AVG_SIZE.
+ * No chunk is longer than MAX_SIZE.
+ *
+ * @author Sol1tudeRain
+ */
+class Chunker {
+
+    static final int MIN_SIZE = 16 * 1024;
+    static final int AVG_SIZE = 64 * 1024;
+    static final int MAX_SIZE = 256 * 1024;
+
+    /**
+     * Masks on the high bits of the hash, which depend on the last 64 bytes read.
+     * MASK_S has two more bits than log2(AVG_SIZE) and MASK_L two fewer.
+     */
+    private static final long MASK_S = -1L << (64 - 18);
+    private static final long MASK_L = -1L << (64 - 14);
+
+    /**
+     * Pseudo-random value of every byte. Chunk boundaries, and so the IDs of stored chunks,
+     * depend on these, so they must never change.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // SplitMix64 from a fixed seed
+        long seed = 0x676974_6c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * Receives the chunks of a stream, in order.
+     */
+    interface ChunkSink {
+        void accept(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Split everything IN yields into chunks and pass them to SINK.
+     */
+    static void split(InputStream in, ChunkSink sink) throws IOException {
+        byte[] buffer = new byte[2 * MAX_SIZE];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        while (true) {
+            if (end - start < MAX_SIZE && !eof) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                while (end < buffer.length) {
+                    int n = in.read(buffer, end, buffer.length - end);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    end += n;
+                }
+            }
+            if (start == end) {
+                return;
+            }
+            int length = cut(buffer, start, end - start);
+            sink.accept(buffer, start, length);
+            start += length;
+        }
+    }
+
+    /**
+     * Return the length of the chunk at the start of the AVAILABLE bytes of DATA from OFFSET.
+     */
+    private static int cut(byte[] data, int offset, int available) {
+        if (available <= MIN_SIZE) {
+            return available;
+        }
+        int limit = Math.min(available, MAX_SIZE);
+        int normal = Math.min(limit, AVG_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_S) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_L) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,207 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * A compact binary encoding for gitlet objects, used instead of Java serialization.
+ * <p></p>
+ * An encoded object is laid out as
+ * <pre>
+ *     magic (3 bytes) | version (1 byte) | string table | body
+ * </pre>
+ * Integers are varints, IDs are 20 raw bytes, and strings are varint-length-prefixed UTF-8.
+ * Strings that recur, such as file names, are interned: the body refers to them by their position
+ * in the string table. Each table entry is front-coded against the previous one, i.e. stored as
+ * the length of the prefix they share followed by the rest of the string.
+ *
+ * @author Sol1tudeRain
+ */
+class Codec {
+
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Read a varint from DATA at POS[0] and advance POS[0] past it.
+     */
+    static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    /**
+     * Return true if DATA starts with the 3-byte MAGIC.
+     */
+    static boolean hasMagic(byte[] data, int magic) {
+        return data.length >= 4 && (data[0] & 0xff) == (magic >>> 16)
+                && (data[1] & 0xff) == ((magic >>> 8) & 0xff) && (data[2] & 0xff) == (magic & 0xff);
+    }
+
+    /**
+     * Builds an encoded object.
+     */
+    static class Output {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+        void writeVarint(long value) {
+            Codec.writeVarint(body, value);
+        }
+
+        void writeString(String value) {
+            writeBytes(body, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+            Codec.writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Write a reference to VALUE in the string table.
+         */
+        void writeInterned(String value) {
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.put(value, index);
+            }
+            writeVarint(index);
+        }
+
+        /**
+         * Write the complete SHA-1 UID ID.
+         */
+        void writeID(String id) {
+            byte[] bytes = fromHex(id);
+            if (bytes == null) {
+                throw error("Internal error encoding ID %s.", id);
+            }
+            body.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Write ID, which may be null.
+         */
+        void writeOptionalID(String id) {
+            body.write(id == null ? 0 : 1);
+            if (id != null) {
+                writeID(id);
+            }
+        }
+
+        /**
+         * Return the encoded object, tagged with the 3-byte MAGIC and VERSION.
+         */
+        byte[] toByteArray(int magic, int version) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 64);
+            out.write(magic >>> 16);
+            out.write((magic >>> 8) & 0xff);
+            out.write(magic & 0xff);
+            out.write(version);
+            Codec.writeVarint(out, strings.size());
+            String previous = "";
+            for (String value : strings.keySet()) {
+                int shared = 0;
+                int max = Math.min(previous.length(), value.length());
+                while (shared < max && previous.charAt(shared) == value.charAt(shared)) {
+                    shared += 1;
+                }
+                // Never split a surrogate pair.
+                if (shared > 0 && shared < value.length() && Character.isLowSurrogate(value.charAt(shared))) {
+                    shared -= 1;
+                }
+                Codec.writeVarint(out, shared);
+                writeBytes(out, value.substring(shared).getBytes(StandardCharsets.UTF_8));
+                previous = value;
+            }
+            out.writeBytes(body.toByteArray());
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Reads an encoded object.
+     */
+    static class Input {
+        private final byte[] data;
+        private final int[] pos = {4};
+        private final List<String> strings = new ArrayList<>();
+
+        /**
+         * Version of the encoded object
+         */
+        final int version;
+
+        Input(byte[] data, int magic) {
+            if (!hasMagic(data, magic)) {
+                throw error("Corrupted object.");
+            }
+            this.data = data;
+            this.version = data[3] & 0xff;
+            int count = readInt();
+            String previous = "";
+            for (int i = 0; i < count; i += 1) {
+                int shared = readInt();
+                String value = previous.substring(0, shared) + readString();
+                strings.add(value);
+                previous = value;
+            }
+        }
+
+        long readVarint() {
+            return Codec.readVarint(data, pos);
+        }
+
+        int readInt() {
+            return (int) readVarint();
+        }
+
+        String readString() {
+            int length = readInt();
+            String value = new String(data, pos[0], length, StandardCharsets.UTF_8);
+            pos[0] += length;
+            return value;
+        }
+
+        String readInterned() {
+            return strings.get(readInt());
+        }
+
+        String readID() {
+            byte[] id = new byte[ID_BYTES];
+            System.arraycopy(data, pos[0], id, 0, ID_BYTES);
+            pos[0] += ID_BYTES;
+            return toHex(id);
+        }
+
+        String readOptionalID() {
+            int present = data[pos[0]];
+            pos[0] += 1;
+            return present == 0 ? null : readID();
+        }
+    }
+}
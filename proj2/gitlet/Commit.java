@@ -1,11 +1,12 @@
 package gitlet;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
-import static gitlet.Repository.COMMITS_DIR;
 import static gitlet.Utils.*;
 
 
@@ -18,6 +19,29 @@ import static gitlet.Utils.*;
  */
 public class Commit implements Serializable, Cloneable {
 
+    /**
+     * Fixed to the value Java derived for the original class, so that commits
+     * saved with Java serialization by older versions of gitlet can still be read.
+     */
+    private static final long serialVersionUID = 5225098100865432163L;
+
+    /**
+     * "GLC", the magic number of an encoded commit, and the current encoding version
+     */
+    private static final int MAGIC = 0x474c43;
+    private static final int VERSION = 2;
+
+    /**
+     * The fields of commits saved with Java serialization, which tracked files in a flat map
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("message", String.class),
+        new ObjectStreamField("parents", LinkedList.class),
+        new ObjectStreamField("date", String.class),
+        new ObjectStreamField("UID", String.class),
+        new ObjectStreamField("trackedFiles", HashMap.class),
+    };
+
     public String message;
     public LinkedList<String> parents;
     public String date;
@@ -25,29 +49,101 @@ public class Commit implements Serializable, Cloneable {
 
     /**
      * A map used to save mappings from filenames to the corresponding IDs.
-     * Filenames are names and IDs are SHA-1 values.
+     * Filenames are paths relative to CWD and IDs are SHA-1 values.
      */
-    public HashMap<String, String> trackedFiles;
+    public Tree trackedFiles;
 
     public Commit(String message) {
         this.message = message;
         this.parents = new LinkedList<>();
-        this.trackedFiles = new HashMap<>();
+        this.trackedFiles = new Tree();
+    }
+
+    /**
+     * Return the binary encoding of this commit, whose SHA-1 value is its UID.
+     * The UID itself is not part of the encoding. Tracked files are given by the ID of their tree,
+     * so hashing a commit only hashes the directories that changed.
+     */
+    public byte[] encode() {
+        Codec.Output out = new Codec.Output();
+        out.writeString(message);
+        out.writeString(date);
+        out.writeVarint(parents.size());
+        for (String parent : parents) {
+            out.writeOptionalID(parent);
+        }
+        out.writeID(trackedFiles.id());
+        return out.toByteArray(MAGIC, VERSION);
+    }
+
+    /**
+     * Return the commit with the given ID stored as BYTES, which are either
+     * produced by encode() or, for commits of older repositories, by Java serialization.
+     */
+    public static Commit decode(byte[] bytes, String id) {
+        if (!Codec.hasMagic(bytes, MAGIC)) {
+            return deserialize(bytes, Commit.class);
+        }
+        Codec.Input in = new Codec.Input(bytes, MAGIC);
+        Commit commit = new Commit(in.readString());
+        commit.date = in.readString();
+        int parentCount = in.readInt();
+        for (int i = 0; i < parentCount; i += 1) {
+            commit.parents.add(in.readOptionalID());
+        }
+        if (in.version == 1) {
+            // Version 1 listed every tracked file.
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i += 1) {
+                commit.trackedFiles.put(in.readInterned(), in.readID());
+            }
+        } else {
+            commit.trackedFiles = Tree.of(in.readID());
+        }
+        commit.UID = id;
+        return commit;
+    }
+
+    /**
+     * Return whether BYTES, a stored commit, is the commit with the given ID. An encoded commit is
+     * named by the SHA-1 value of its encoding. A commit serialized by older versions was named before
+     * its UID was set, which cannot be repeated, so it is only checked against the UID it holds.
+     */
+    static boolean hasID(byte[] bytes, String id) {
+        if (Codec.hasMagic(bytes, MAGIC)) {
+            return sha1(bytes).equals(id);
+        }
+        return id.equals(deserialize(bytes, Commit.class).UID);
     }
 
     /**
      * Save this commit object.
      */
     public void save() {
-        File commitPath = join(COMMITS_DIR, this.UID);
-        writeObject(commitPath, this);
+        trackedFiles.save();
+        ObjectStore.writeCommit(this.UID, encode());
+        CommitGraph.get().add(this);
+        MessageIndex.add(this);
     }
 
     @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        message = (String) fields.get("message", null);
+        parents = (LinkedList<String>) fields.get("parents", null);
+        date = (String) fields.get("date", null);
+        UID = (String) fields.get("UID", null);
+        trackedFiles = Tree.of((HashMap<String, String>) fields.get("trackedFiles", null));
+    }
+
+    /**
+     * Return a copy of this commit whose tracked files can be changed. Only the root of the tree
+     * is copied; directories are copied once files in them change.
+     */
     @Override
     public Object clone() throws CloneNotSupportedException {
         Commit ret = (Commit) super.clone();
-        ret.trackedFiles = (HashMap<String, String>) trackedFiles.clone();
+        ret.trackedFiles = trackedFiles.copy();
         return ret;
     }
 }
@@ -0,0 +1,108 @@
+package gitlet;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently used commits in memory, so that commands walking the history, like log and merge,
+ * and a daemon running many commands, do not read and decode the same commit again.
+ * <p></p>
+ * A saved commit never changes, so a cached one never becomes stale. The least recently used commits
+ * are dropped to keep the total size of their encodings below MAX_BYTES. Cached commits are shared,
+ * so they must not be changed: a new commit is made from a clone.
+ *
+ * @author Sol1tudeRain
+ */
+class CommitCache {
+
+    /**
+     * Upper bound on the total encoded size of the cached commits
+     */
+    static final long MAX_BYTES = 16L << 20;
+
+    private static class Entry {
+        final Commit commit;
+        final int size;
+
+        Entry(Commit commit, int size) {
+            this.commit = commit;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Cached commits by ID, least recently used first
+     */
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private static long bytes;
+
+    private static long hits;
+    private static long misses;
+
+    /**
+     * Whether commands print the counters, as set by the "stats" config option
+     */
+    static boolean stats;
+
+    /**
+     * Apply the config options of this repository that concern the cache.
+     */
+    static void configure(Map<String, String> config) {
+        stats = Boolean.parseBoolean(config.get("stats"));
+    }
+
+    /**
+     * Return the commit with the given full ID, or null if there is no such commit.
+     */
+    static synchronized Commit get(String id) {
+        Entry entry = entries.get(id);
+        if (entry != null) {
+            hits += 1;
+            return entry.commit;
+        }
+        misses += 1;
+        byte[] serializedCommit = ObjectStore.readCommit(id);
+        if (serializedCommit == null) {
+            return null;
+        }
+        Commit commit = Commit.decode(serializedCommit, id);
+        if (serializedCommit.length <= MAX_BYTES) {
+            entries.put(id, new Entry(commit, serializedCommit.length));
+            bytes += serializedCommit.length;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > MAX_BYTES) {
+                bytes -= eldest.next().getValue().size;
+                eldest.remove();
+            }
+        }
+        return commit;
+    }
+
+    /**
+     * Forget the commits with the given IDs, which are being deleted.
+     */
+    static synchronized void remove(Collection<String> ids) {
+        for (String id : ids) {
+            Entry entry = entries.remove(id);
+            if (entry != null) {
+                bytes -= entry.size;
+            }
+        }
+    }
+
+    /**
+     * Number of lookups answered from memory
+     */
+    static synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Number of lookups that had to read the commit from the object store
+     */
+    static synchronized long misses() {
+        return misses;
+    }
+}
@@ -0,0 +1,530 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A cache of the parents and generation numbers of all commits, so that history can be walked
+ * without reading commit objects. The generation number of a root commit is 1, and that of
+ * any other commit is one more than the largest generation number of its parents.
+ * <p></p>
+ * The graph lives in two files. GRAPH_PATH holds most commits, sorted by ID:
+ * <pre>
+ *     "GCGR" | version | count | fan-out[256] | IDs[count] | (parent 1, parent 2, generation)[count]
+ * </pre>
+ * where parents are positions in the ID list, or -1. New commits are appended to GRAPH_TAIL_PATH as
+ * (ID, parent 1 ID, parent 2 ID, generation) records, and are merged into GRAPH_PATH once there are
+ * MAX_TAIL of them, or when the repository is garbage collected.
+ * <p></p>
+ * Commits are referred to by their position: those of GRAPH_PATH come first, then those of the tail.
+ *
+ * @author Sol1tudeRain
+ */
+class CommitGraph {
+
+    private static final int MAGIC = 0x47434752;
+    private static final int VERSION = 1;
+    private static final int ID_BYTES = 20;
+    private static final int FANOUT_OFFSET = 12;
+    private static final int IDS_OFFSET = FANOUT_OFFSET + 256 * 4;
+    private static final int DATA_BYTES = 12;
+    private static final int RECORD_BYTES = 3 * ID_BYTES + 4;
+    private static final int MAX_TAIL = 1024;
+    private static final byte[] NO_PARENT = new byte[ID_BYTES];
+
+    /**
+     * The graph of this repository, loaded on first use
+     */
+    private static CommitGraph graph;
+
+    private final MappedByteBuffer base;
+    private final int baseSize;
+
+    /**
+     * Stamp of GRAPH_PATH and length of GRAPH_TAIL_PATH as this graph knows them,
+     * to tell when another process has changed the files
+     */
+    private Object baseStamp;
+    private long tailLength;
+
+    private final List<String> tailIDs = new ArrayList<>();
+    private final List<int[]> tailData = new ArrayList<>();
+    private final HashMap<String, Integer> tailPositions = new HashMap<>();
+
+    private CommitGraph(MappedByteBuffer base) {
+        this.base = base;
+        this.baseSize = base == null ? 0 : base.getInt(8);
+    }
+
+    /**
+     * Return the commit graph of this repository. A repository without one,
+     * e.g. one created by an older version of gitlet, gets one built from its commits.
+     */
+    static synchronized CommitGraph get() {
+        if (graph == null) {
+            if (!GRAPH_PATH.exists() && !GRAPH_TAIL_PATH.exists()) {
+                graph = new CommitGraph(null);
+                for (String commitID : ObjectStore.commitIDs()) {
+                    graph.ensure(commitID);
+                }
+                if (WriterLock.tryAcquire()) {
+                    graph.write();
+                }
+            } else {
+                graph = load();
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Forget the graph if another process has changed it since it was loaded.
+     */
+    static synchronized void refresh() {
+        if (graph != null && !(Objects.equals(graph.baseStamp, stamp(GRAPH_PATH))
+                && graph.tailLength == GRAPH_TAIL_PATH.length() / RECORD_BYTES * RECORD_BYTES)) {
+            graph = null;
+        }
+    }
+
+    static synchronized void forget() {
+        graph = null;
+    }
+
+    private static CommitGraph load() {
+        try {
+            MappedByteBuffer base = null;
+            if (GRAPH_PATH.exists()) {
+                try (FileChannel channel = FileChannel.open(GRAPH_PATH.toPath(), StandardOpenOption.READ)) {
+                    base = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                if (base.getInt(0) != MAGIC || base.getInt(4) != VERSION) {
+                    throw error("Corrupted commit graph.");
+                }
+            }
+            CommitGraph result = new CommitGraph(base);
+            result.baseStamp = stamp(GRAPH_PATH);
+            if (GRAPH_TAIL_PATH.exists()) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(GRAPH_TAIL_PATH.toPath())))) {
+                    int records = (int) (GRAPH_TAIL_PATH.length() / RECORD_BYTES);
+                    result.tailLength = (long) records * RECORD_BYTES;
+                    byte[] id = new byte[ID_BYTES];
+                    for (int i = 0; i < records; i += 1) {
+                        in.readFully(id);
+                        String commitID = toHex(id);
+                        in.readFully(id);
+                        int parent1 = result.parentPosition(id);
+                        in.readFully(id);
+                        int parent2 = result.parentPosition(id);
+                        int generation = in.readInt();
+                        // Left behind if write() was interrupted after moving the new base into place
+                        if (result.position(commitID) < 0) {
+                            result.addToTail(commitID, parent1, parent2, generation);
+                        }
+                    }
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private int parentPosition(byte[] id) {
+        return Arrays.equals(id, NO_PARENT) ? -1 : position(toHex(id));
+    }
+
+    private void addToTail(String commitID, int parent1, int parent2, int generation) {
+        tailPositions.put(commitID, baseSize + tailIDs.size());
+        tailIDs.add(commitID);
+        tailData.add(new int[]{parent1, parent2, generation});
+    }
+
+    int size() {
+        return baseSize + tailIDs.size();
+    }
+
+    /**
+     * Return the position of the commit with the given ID, or -1 if it is not in the graph.
+     */
+    int position(String commitID) {
+        Integer tailPosition = tailPositions.get(commitID);
+        if (tailPosition != null) {
+            return tailPosition;
+        }
+        byte[] key = commitID == null ? null : fromHex(commitID);
+        if (base == null || key == null) {
+            return -1;
+        }
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : base.getInt(FANOUT_OFFSET + (first - 1) * 4);
+        int hi = base.getInt(FANOUT_OFFSET + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareID(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareID(int position, byte[] key) {
+        int offset = IDS_OFFSET + position * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(base.get(offset + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Return the full ID of the only commit whose ID starts with PREFIX,
+     * or null if there is no such commit or more than one.
+     */
+    String resolve(String prefix) {
+        String match = null;
+        for (String commitID : tailIDs) {
+            if (commitID.startsWith(prefix)) {
+                if (match != null) {
+                    return null;
+                }
+                match = commitID;
+            }
+        }
+        if (base == null || prefix.length() < 2) {
+            return match;
+        }
+        // Binary search for the first ID that is not less than PREFIX among those sharing its first byte.
+        int first = Integer.parseInt(prefix.substring(0, 2), 16);
+        int lo = first == 0 ? 0 : base.getInt(FANOUT_OFFSET + (first - 1) * 4);
+        int hi = base.getInt(FANOUT_OFFSET + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (id(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < baseSize && id(i).startsWith(prefix); i += 1) {
+            if (match != null && !match.equals(id(i))) {
+                return null;
+            }
+            match = id(i);
+        }
+        return match;
+    }
+
+    String id(int position) {
+        if (position >= baseSize) {
+            return tailIDs.get(position - baseSize);
+        }
+        byte[] id = new byte[ID_BYTES];
+        base.get(IDS_OFFSET + position * ID_BYTES, id);
+        return toHex(id);
+    }
+
+    private int data(int position, int field) {
+        if (position >= baseSize) {
+            return tailData.get(position - baseSize)[field];
+        }
+        return base.getInt(IDS_OFFSET + baseSize * ID_BYTES + position * DATA_BYTES + field * 4);
+    }
+
+    /**
+     * Return the position of the first (WHICH = 0) or second (WHICH = 1) parent
+     * of the commit at POSITION, or -1 if it has no such parent.
+     */
+    int parent(int position, int which) {
+        return data(position, which);
+    }
+
+    int generation(int position) {
+        return data(position, 2);
+    }
+
+    /**
+     * Return the position of the commit with the given ID, adding it and any of its ancestors
+     * that are missing from the graph. Returns -1 if there is no such commit.
+     */
+    int ensure(String commitID) {
+        int position = position(commitID);
+        if (position >= 0) {
+            return position;
+        }
+        // Add missing ancestors before their children, without recursion.
+        Deque<Commit> pending = new ArrayDeque<>();
+        Commit start = getCommit(commitID);
+        if (start == null) {
+            return -1;
+        }
+        pending.push(start);
+        while (!pending.isEmpty()) {
+            Commit commit = pending.peek();
+            boolean ready = true;
+            for (String parentID : commit.parents) {
+                if (parentID != null && position(parentID) < 0) {
+                    pending.push(getCommit(parentID));
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                if (position(commit.UID) < 0) {
+                    append(commit);
+                }
+            }
+        }
+        return position(start.UID);
+    }
+
+    /**
+     * Add COMMIT, whose parents must already be in the graph, and record it in the tail file
+     * unless this process only reads the repository.
+     */
+    private void append(Commit commit) {
+        int[] parents = {-1, -1};
+        int generation = 1;
+        for (int i = 0; i < commit.parents.size() && i < 2; i += 1) {
+            parents[i] = position(commit.parents.get(i));
+            if (parents[i] >= 0) {
+                generation = Math.max(generation, generation(parents[i]) + 1);
+            }
+        }
+        addToTail(commit.UID, parents[0], parents[1], generation);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(RECORD_BYTES);
+        try (DataOutputStream out = new DataOutputStream(record)) {
+            out.write(fromHex(commit.UID));
+            writeParent(out, parents[0]);
+            writeParent(out, parents[1]);
+            out.writeInt(generation);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (WriterLock.held()) {
+            Journal.appendRecord(GRAPH_TAIL_PATH, record.toByteArray());
+            tailLength += RECORD_BYTES;
+        }
+    }
+
+    private void writeParent(OutputStream out, int position) throws IOException {
+        out.write(position < 0 ? NO_PARENT : fromHex(id(position)));
+    }
+
+    /**
+     * Add the newly saved COMMIT to the graph, merging the tail into GRAPH_PATH when it gets long.
+     */
+    void add(Commit commit) {
+        ensure(commit.UID);
+        if (tailIDs.size() >= MAX_TAIL) {
+            write();
+        }
+    }
+
+    /**
+     * Rewrite GRAPH_PATH with all commits of the graph and empty the tail.
+     */
+    void write() {
+        write(Set.of());
+    }
+
+    /**
+     * Rewrite GRAPH_PATH with the commits of the graph except REMOVED, and empty the tail.
+     * No commit that is kept may have a parent in REMOVED.
+     */
+    void write(Set<String> removed) {
+        TreeMap<String, Integer> sorted = new TreeMap<>();
+        for (int i = 0; i < size(); i += 1) {
+            if (!removed.contains(id(i))) {
+                sorted.put(id(i), i);
+            }
+        }
+        // Positions of removed commits are never looked up.
+        int[] newPositions = new int[size()];
+        int next = 0;
+        for (int oldPosition : sorted.values()) {
+            newPositions[oldPosition] = next;
+            next += 1;
+        }
+
+        File temp = join(GITLET_DIR, GRAPH_PATH.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            int[] fanout = new int[256];
+            for (String commitID : sorted.keySet()) {
+                fanout[Integer.parseInt(commitID.substring(0, 2), 16)] += 1;
+            }
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (String commitID : sorted.keySet()) {
+                out.write(fromHex(commitID));
+            }
+            for (int oldPosition : sorted.values()) {
+                for (int which = 0; which < 2; which += 1) {
+                    int parent = parent(oldPosition, which);
+                    out.writeInt(parent < 0 ? -1 : newPositions[parent]);
+                }
+                out.writeInt(generation(oldPosition));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try {
+            Journal.sync(temp);
+            Files.move(temp.toPath(), GRAPH_PATH.toPath(), REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        safeDelete(GRAPH_TAIL_PATH);
+        graph = load();
+    }
+
+    /**
+     * Return the ID of the latest common ancestor of the commits with IDs A and B, or null if they have none.
+     * <p></p>
+     * Commits are visited in decreasing order of generation number, marking each with the side(s)
+     * it can be reached from. A commit is only visited after all of its descendants among the marked
+     * commits, so the first one reached from both sides is a common ancestor that is not an ancestor
+     * of any other common ancestor.
+     */
+    String mergeBase(String a, String b) {
+        final int fromA = 1;
+        final int fromB = 2;
+        int positionA = ensure(a);
+        int positionB = ensure(b);
+        HashMap<Integer, Integer> marks = new HashMap<>();
+        PriorityQueue<Integer> fringe = new PriorityQueue<>(
+                (x, y) -> Integer.compare(generation(y), generation(x)));
+        marks.put(positionA, fromA);
+        marks.merge(positionB, fromB, (x, y) -> x | y);
+        fringe.add(positionA);
+        if (positionB != positionA) {
+            fringe.add(positionB);
+        }
+        while (!fringe.isEmpty()) {
+            int position = fringe.poll();
+            int mark = marks.get(position);
+            if (mark == (fromA | fromB)) {
+                return id(position);
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int parent = parent(position, which);
+                if (parent < 0) {
+                    continue;
+                }
+                Integer old = marks.get(parent);
+                if (old == null) {
+                    marks.put(parent, mark);
+                    fringe.add(parent);
+                } else {
+                    marks.put(parent, old | mark);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the IDs of the commits reachable from WANTS but not from HAVES, parents before children.
+     * IDs of commits that are not in this repository are ignored.
+     * <p></p>
+     * Commits are visited in decreasing order of generation number like in mergeBase(), so a commit's
+     * marks are final when it is visited. The walk stops once every commit left to visit is reachable
+     * from HAVES, so it only goes as far back as the oldest missing commit.
+     */
+    List<String> missing(Collection<String> wants, Collection<String> haves) {
+        final int wanted = 1;
+        final int had = 2;
+        HashMap<Integer, Integer> marks = new HashMap<>();
+        PriorityQueue<Integer> fringe = new PriorityQueue<>(
+                (x, y) -> Integer.compare(generation(y), generation(x)));
+        int pendingWanted = 0;
+        for (String id : wants) {
+            int position = ensure(id);
+            if (position >= 0 && marks.putIfAbsent(position, wanted) == null) {
+                fringe.add(position);
+                pendingWanted += 1;
+            }
+        }
+        for (String id : haves) {
+            int position = ensure(id);
+            if (position >= 0) {
+                Integer old = marks.put(position, had);
+                if (old == null) {
+                    fringe.add(position);
+                } else if (old == wanted) {
+                    pendingWanted -= 1;
+                }
+            }
+        }
+        List<String> missing = new ArrayList<>();
+        while (pendingWanted > 0) {
+            int position = fringe.poll();
+            int mark = marks.get(position);
+            if (mark == wanted) {
+                pendingWanted -= 1;
+                missing.add(id(position));
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int parent = parent(position, which);
+                if (parent < 0) {
+                    continue;
+                }
+                Integer old = marks.get(parent);
+                if (old == null) {
+                    marks.put(parent, mark);
+                    fringe.add(parent);
+                    if (mark == wanted) {
+                        pendingWanted += 1;
+                    }
+                } else if (old == wanted && mark != wanted) {
+                    marks.put(parent, had);
+                    pendingWanted -= 1;
+                }
+            }
+        }
+        Collections.reverse(missing);
+        return missing;
+    }
+}
@@ -0,0 +1,304 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Compresses stored objects with one of several codecs.
+ * <p></p>
+ * A compressed object starts with the 4-byte header
+ * <pre>
+ *     0xc7 'G' 'Z' | codec
+ * </pre>
+ * and anything else is stored as is, so objects written before compression existed, or with
+ * compression turned off, are read unchanged. 0xc7 followed by 'G' never starts UTF-8 text,
+ * and an uncompressed object that happens to start with the header is stored with codec NONE.
+ * <p></p>
+ * DEFLATE objects are zlib streams. LZ4 objects are a list of blocks of at most BLOCK_SIZE bytes,
+ * each being its length, the length of its compressed form and the compressed form
+ * (see {@link Lz4}), or the block itself if the compressed length is 0.
+ *
+ * @author Sol1tudeRain
+ */
+class Compression {
+
+    static final byte NONE = 0;
+    static final byte DEFLATE = 1;
+    static final byte LZ4 = 2;
+
+    /**
+     * Names of the codecs, by codec number, as used by the "compression" config option
+     */
+    static final List<String> NAMES = List.of("none", "deflate", "lz4");
+
+    private static final byte[] MAGIC = {(byte) 0xc7, 'G', 'Z'};
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Return the codec with the given NAME, or NONE if there is no such codec.
+     */
+    static byte codec(String name) {
+        int codec = NAMES.indexOf(name);
+        return codec < 0 ? NONE : (byte) codec;
+    }
+
+    private static boolean hasMagic(byte[] data, int length) {
+        return length >= HEADER_SIZE && data[0] == MAGIC[0] && data[1] == MAGIC[1] && data[2] == MAGIC[2];
+    }
+
+    /**
+     * Return DATA as it is stored with CODEC.
+     */
+    static byte[] compress(byte[] data, byte codec) {
+        if (codec == NONE && !hasMagic(data, data.length)) {
+            return data;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + HEADER_SIZE);
+        try (OutputStream compressed = compressing(out, codec)) {
+            compressed.write(data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the contents of the STORED object.
+     */
+    static byte[] decompress(byte[] stored) {
+        if (!hasMagic(stored, stored.length)) {
+            return stored;
+        }
+        try (InputStream in = decompressing(new ByteArrayInputStream(stored))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw Utils.error("Corrupted object.");
+        }
+    }
+
+    /**
+     * Store the contents of the file SOURCE in DES with CODEC, and return their SHA-1 value,
+     * so that SOURCE is only read once.
+     */
+    static String compressFile(File source, File des, byte codec) throws IOException {
+        MessageDigest digest = PackFile.newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source.toPath()), digest)) {
+            byte[] start = in.readNBytes(HEADER_SIZE);
+            try (OutputStream file = Files.newOutputStream(des.toPath());
+                 OutputStream out = codec == NONE && !hasMagic(start, start.length)
+                         ? file : compressing(file, codec)) {
+                out.write(start);
+                in.transferTo(out);
+            }
+        }
+        return Utils.toHex(digest.digest());
+    }
+
+    /**
+     * Write the contents of the stored object SOURCE to the file DES.
+     */
+    static void decompressFile(File source, File des) throws IOException {
+        try (InputStream in = decompressing(Files.newInputStream(source.toPath()))) {
+            Files.copy(in, des.toPath(), REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Return a stream of the contents of the stored object in BUFFER.
+     */
+    static InputStream open(ByteBuffer buffer) throws IOException {
+        return decompressing(new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.get(b, off, n);
+                return n;
+            }
+        });
+    }
+
+    /**
+     * Return a stream that writes its data to OUT compressed with CODEC, after the header.
+     */
+    static OutputStream compressing(OutputStream out, byte codec) throws IOException {
+        out.write(MAGIC);
+        out.write(codec);
+        switch (codec) {
+            case DEFLATE:
+                // Deflate is chosen for archival, so it may as well compress as much as it can.
+                return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_COMPRESSION), BLOCK_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        def.end();
+                    }
+                };
+            case LZ4:
+                return new Lz4OutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Return a stream of the contents of the stored object that IN yields.
+     */
+    static InputStream decompressing(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BLOCK_SIZE);
+        buffered.mark(HEADER_SIZE);
+        byte[] header = buffered.readNBytes(HEADER_SIZE);
+        if (!hasMagic(header, header.length)) {
+            buffered.reset();
+            return buffered;
+        }
+        switch (header[MAGIC.length]) {
+            case NONE:
+                return buffered;
+            case DEFLATE:
+                return new InflaterInputStream(buffered);
+            case LZ4:
+                return new Lz4InputStream(buffered);
+            default:
+                throw Utils.error("Object compressed with an unknown codec.");
+        }
+    }
+
+    private static class Lz4OutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private int length;
+
+        Lz4OutputStream(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, BLOCK_SIZE - length);
+                System.arraycopy(b, off, block, length, n);
+                length += n;
+                off += n;
+                len -= n;
+                if (length == BLOCK_SIZE) {
+                    writeBlock();
+                }
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (length == 0) {
+                return;
+            }
+            byte[] compressed = Lz4.compress(block, 0, length);
+            out.writeInt(length);
+            if (compressed.length < length) {
+                out.writeInt(compressed.length);
+                out.write(compressed);
+            } else {
+                out.writeInt(0);
+                out.write(block, 0, length);
+            }
+            length = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeBlock();
+            out.close();
+        }
+    }
+
+    private static class Lz4InputStream extends InputStream {
+        private final DataInputStream in;
+        private byte[] block = new byte[0];
+        private int position;
+
+        Lz4InputStream(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        /**
+         * Read the next block, returning false at the end of the stream.
+         */
+        private boolean nextBlock() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            int compressedLength = in.readInt();
+            if (length < 0 || length > BLOCK_SIZE || compressedLength < 0 || compressedLength > BLOCK_SIZE) {
+                throw Utils.error("Corrupted object.");
+            }
+            if (compressedLength == 0) {
+                block = in.readNBytes(length);
+            } else {
+                byte[] compressed = in.readNBytes(compressedLength);
+                block = Lz4.decompress(compressed, 0, compressed.length, length);
+            }
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == block.length) {
+                if (!nextBlock()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
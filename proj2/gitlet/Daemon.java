@@ -0,0 +1,327 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Runs gitlet commands on behalf of other processes, so that a script running many commands
+ * starts a JVM and loads the repository only once.
+ * <p></p>
+ * "daemon" listens on a port of the loopback interface, and writes that port and a random token
+ * to DAEMON_PATH in the repository. While it runs, gitlet forwards its arguments there and prints
+ * the output it gets back, so it is a thin client of the daemon; if the daemon cannot be reached,
+ * the command runs in the client as usual.
+ * <p></p>
+ * The daemon greets every connection with MAGIC, and only then does the client send its request
+ * <pre>
+ *     token | count | argument * count
+ * </pre>
+ * written with DataOutput. The daemon answers with the output of the command and closes the
+ * connection. It drops requests without the token, so only processes that can read the repository
+ * can use it, and a request without arguments only tells the client that the daemon is running.
+ * "daemon stop" stops the daemon.
+ * <p></p>
+ * Both sides wait at most TIMEOUT for each other before the command starts. A client that gets no
+ * greeting in time, e.g. because the daemon is busy with a long command, or because DAEMON_PATH was
+ * left by a daemon that was killed, runs the command itself, and since it has not sent its request
+ * yet, the daemon never runs it too. The daemon drops a client that does not send its request in
+ * time, so a stuck client cannot keep it from serving others.
+ * <p></p>
+ * "daemon --stdin" instead reads one command per line from standard input, with its arguments
+ * separated by spaces, and in double quotes if they contain spaces. Each command is answered by its
+ * output followed by a line holding a single ".", and output lines that start with "." get another
+ * "." in front of them, as in SMTP.
+ * <p></p>
+ * With "--watch", the daemon watches the working directory through a TreeWatcher, so that status,
+ * diff and checkout only read the working files that changed since the previous command.
+ * <p></p>
+ * Commands run one at a time, each taking the writer lock and committing its journal just like
+ * a separate process, so other gitlet processes can keep using the repository. The state, the stat
+ * index, the commit graph and the packs stay in memory between commands, and are read again once
+ * another process has replaced them.
+ *
+ * @author Sol1tudeRain
+ */
+class Daemon {
+
+    private static final String STOP = "stop";
+    private static final String STDIN = "--stdin";
+    private static final String WATCH = "--watch";
+    private static final String END = ".";
+
+    /**
+     * "GLTD", the greeting of the daemon
+     */
+    private static final int MAGIC = 0x474c5444;
+    private static final int TOKEN_BYTES = 20;
+
+    /**
+     * Milliseconds that the daemon and its clients wait for each other before a command starts
+     */
+    private static final int TIMEOUT = 2000;
+
+    /**
+     * Run the daemon command with the given ARGS.
+     */
+    static void command(String[] args) {
+        boolean watch = args.length > 1 && args[args.length - 1].equals(WATCH);
+        int operands = watch ? args.length - 1 : args.length;
+        if (operands == 1) {
+            serve(watch);
+        } else if (operands == 2 && args[1].equals(STDIN)) {
+            serveStdin(watch);
+        } else if (args.length == 2 && args[1].equals(STOP)) {
+            if (!forward(args)) {
+                System.out.println("No gitlet daemon is running.");
+            }
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Have the daemon of this repository, if one is running, run the command in ARGS
+     * and print its output. Returns false if no daemon could be reached.
+     */
+    static boolean forward(String[] args) {
+        Socket socket = connect(args);
+        if (socket == null) {
+            return false;
+        }
+        try (socket) {
+            socket.getInputStream().transferTo(System.out);
+            System.out.flush();
+        } catch (IOException e) {
+            System.out.println("Lost the connection to the gitlet daemon.");
+        }
+        return true;
+    }
+
+    /**
+     * Send the request ARGS to the daemon of this repository once it has greeted the connection,
+     * and return the connection, or null if no daemon could be reached in time.
+     */
+    private static Socket connect(String[] args) {
+        if (!DAEMON_PATH.isFile()) {
+            return null;
+        }
+        Socket socket = new Socket();
+        try {
+            String[] address = readContentsAsString(DAEMON_PATH).split("\n");
+            int port = Integer.parseInt(address[0]);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), TIMEOUT);
+            socket.setSoTimeout(TIMEOUT);
+            if (new DataInputStream(socket.getInputStream()).readInt() == MAGIC) {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeUTF(address[1]);
+                out.writeInt(args.length);
+                for (String arg : args) {
+                    out.writeUTF(arg);
+                }
+                out.flush();
+                socket.shutdownOutput();
+                // The command itself may take as long as it needs.
+                socket.setSoTimeout(0);
+                return socket;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Left behind by a daemon that was killed, or the daemon is busy
+        }
+        close(socket);
+        return null;
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    private static boolean running() {
+        Socket socket = connect(new String[0]);
+        if (socket == null) {
+            return false;
+        }
+        close(socket);
+        return true;
+    }
+
+    private static void serve(boolean watch) {
+        if (!GITLET_DIR.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        if (running()) {
+            System.out.println("A gitlet daemon is already running.");
+            return;
+        }
+        if (watch) {
+            try {
+                TreeWatcher.start();
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+        }
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        byte[] token = toHex(random).getBytes(StandardCharsets.UTF_8);
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            publish(server.getLocalPort() + "\n" + toHex(random));
+            while (true) {
+                try (Socket client = server.accept()) {
+                    client.setSoTimeout(TIMEOUT);
+                    DataOutputStream out = new DataOutputStream(client.getOutputStream());
+                    out.writeInt(MAGIC);
+                    out.flush();
+                    DataInputStream in = new DataInputStream(client.getInputStream());
+                    if (!MessageDigest.isEqual(in.readUTF().getBytes(StandardCharsets.UTF_8), token)) {
+                        continue;
+                    }
+                    String[] args = new String[in.readInt()];
+                    for (int i = 0; i < args.length; i += 1) {
+                        args[i] = in.readUTF();
+                    }
+                    if (args.length == 2 && args[0].equals("daemon") && args[1].equals(STOP)) {
+                        // Gone before "daemon stop" returns, so a new daemon can start at once.
+                        DAEMON_PATH.delete();
+                        break;
+                    }
+                    if (args.length > 0) {
+                        out.write(execute(args));
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // The client went away or timed out; the next one is served as usual.
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot listen on the loopback interface: %s", e.getMessage());
+        } finally {
+            DAEMON_PATH.delete();
+        }
+    }
+
+    /**
+     * Write ADDRESS to DAEMON_PATH at once, readable only by the owner where the platform allows.
+     */
+    private static void publish(String address) throws IOException {
+        File temp = Journal.temp(DAEMON_PATH);
+        writeContents(temp, "");
+        temp.setReadable(false, false);
+        temp.setReadable(true, true);
+        writeContents(temp, address);
+        Journal.install(temp, DAEMON_PATH);
+    }
+
+    private static void serveStdin(boolean watch) {
+        if (watch && GITLET_DIR.isDirectory()) {
+            try {
+                TreeWatcher.start();
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+        }
+        PrintStream out = System.out;
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String output = new String(execute(split(line)), StandardCharsets.UTF_8);
+                output.lines().forEach(outputLine ->
+                        out.println(outputLine.startsWith(END) ? END + outputLine : outputLine));
+                out.println(END);
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Split LINE into arguments at spaces outside double quotes.
+     * A backslash in double quotes stands for the character after it.
+     */
+    static String[] split(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quoted && c == '\\' && i + 1 < line.length()) {
+                i += 1;
+                arg.append(line.charAt(i));
+            } else if (c == '"') {
+                quoted = !quoted;
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (arg != null) {
+                    args.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                arg.append(c);
+            }
+        }
+        if (arg != null) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Run the command in ARGS and return its output.
+     */
+    private static byte[] execute(String[] args) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                System.out.println("Already running as a gitlet daemon.");
+            } else {
+                TreeWatcher.sync();
+                Main.run(args);
+            }
+        } catch (ThreadDeath e) {
+            throw e;
+        } catch (Throwable e) {
+            /* Such a failure, e.g. a StackOverflowError, would end a gitlet process, so the daemon
+               forgets what it may have left behind, and serves the next command. */
+            MyUtils.forgetState();
+            CommitGraph.forget();
+            System.out.println("Internal error: " + e);
+        } finally {
+            System.out.flush();
+            System.setOut(out);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static gitlet.Codec.*;
+import static gitlet.Utils.*;
+
+/**
+ * Encodes a file as a list of copy and insert instructions against an older version of it,
+ * so that storing a new version costs about as much as the change itself.
+ * <p></p>
+ * A delta is laid out as
+ * <pre>
+ *     base length | result length | instruction*
+ * </pre>
+ * where lengths are varints and each instruction is either
+ * <pre>
+ *     0x80 | offset | length      copy LENGTH bytes of the base starting at OFFSET
+ *     n (1..127) | n bytes        insert the following n bytes
+ * </pre>
+ * Matches are found by indexing the base in blocks of BLOCK bytes and looking every
+ * position of the target up with a rolling hash.
+ *
+ * @author Sol1tudeRain
+ */
+class Delta {
+
+    private static final int BLOCK = 16;
+    private static final int MAX_INSERT = 127;
+    private static final int COPY = 0x80;
+    private static final int MAX_CHAIN = 32;
+    private static final int MULTIPLIER = 31;
+
+    /**
+     * MULTIPLIER to the power of BLOCK - 1, used to drop the outgoing byte of the rolling hash
+     */
+    private static final int OUTGOING_FACTOR;
+
+    static {
+        int factor = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            factor *= MULTIPLIER;
+        }
+        OUTGOING_FACTOR = factor;
+    }
+
+    /**
+     * Return a delta that turns BASE into TARGET.
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int blocks = base.length / BLOCK;
+        int tableBits = 32 - Integer.numberOfLeadingZeros(Math.max(blocks, 1));
+        int[] heads = new int[1 << tableBits];
+        int[] next = new int[blocks];
+        Arrays.fill(heads, -1);
+        for (int b = 0; b < blocks; b += 1) {
+            int slot = slot(hash(base, b * BLOCK), tableBits);
+            next[b] = heads[slot];
+            heads[slot] = b;
+        }
+
+        int pending = 0; // Start of the bytes that are not yet covered by an instruction
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int bestOffset = -1;
+            int bestLength = 0;
+            int chain = 0;
+            for (int b = heads[slot(h, tableBits)]; b >= 0 && chain < MAX_CHAIN; b = next[b], chain += 1) {
+                int offset = b * BLOCK;
+                int length = matchLength(base, offset, target, i);
+                if (length > bestLength) {
+                    bestOffset = offset;
+                    bestLength = length;
+                }
+            }
+
+            if (bestLength >= BLOCK) {
+                // Grow the match backwards over bytes that would otherwise be inserted.
+                while (bestOffset > 0 && i > pending && base[bestOffset - 1] == target[i - 1]) {
+                    bestOffset -= 1;
+                    i -= 1;
+                    bestLength += 1;
+                }
+                writeInsert(out, target, pending, i);
+                out.write(COPY);
+                writeVarint(out, bestOffset);
+                writeVarint(out, bestLength);
+                i += bestLength;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * OUTGOING_FACTOR) * MULTIPLIER + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the result of applying the delta stored in DELTA from position START on to BASE.
+     */
+    static byte[] apply(byte[] base, byte[] delta, int start) {
+        int[] pos = {start};
+        long baseLength = readVarint(delta, pos);
+        long resultLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw error("Delta does not match its base.");
+        }
+        byte[] result = new byte[(int) resultLength];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]] & 0xff;
+            pos[0] += 1;
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else {
+                System.arraycopy(delta, pos[0], result, written, op);
+                pos[0] += op;
+                written += op;
+            }
+        }
+        if (written != resultLength) {
+            throw error("Corrupted delta.");
+        }
+        return result;
+    }
+
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * MULTIPLIER + data[k];
+        }
+        return h;
+    }
+
+    private static int slot(int hash, int tableBits) {
+        return (hash * 0x9e3779b1) >>> (32 - tableBits);
+    }
+
+    private static int matchLength(byte[] base, int offset, byte[] target, int start) {
+        int length = 0;
+        while (offset + length < base.length && start + length < target.length
+                && base[offset + length] == target[start + length]) {
+            length += 1;
+        }
+        return length;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+}
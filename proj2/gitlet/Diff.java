@@ -0,0 +1,289 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Finds the lines that two files have in common, with Myers' O((N+M)D) diff algorithm.
+ * <p></p>
+ * Lines are compared by number: a Table gives every distinct line of the files it splits a number,
+ * so comparing two lines is comparing two ints. Lines that only occur in one of the files can never
+ * match and are left out before the search, which keeps D small for files that have little in common.
+ * The search uses the linear-space version of the algorithm, which finds the middle snake of a shortest
+ * edit script and recurses on both sides of it, so besides the files it needs O(N+M) memory.
+ *
+ * @author Sol1tudeRain
+ */
+class Diff {
+
+    /**
+     * The lines of a file. Line i is data[starts[i]] up to data[starts[i + 1]], including the
+     * line terminator; the last line has none if the file does not end with one.
+     */
+    static class Lines {
+        final byte[] data;
+        final int[] starts;
+        final int[] ids;
+
+        private Lines(byte[] data, int[] starts, int[] ids) {
+            this.data = data;
+            this.starts = starts;
+            this.ids = ids;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * Write lines FROM up to TO to OUT.
+         */
+        void write(ByteArrayOutputStream out, int from, int to) {
+            out.write(data, starts[from], starts[to] - starts[from]);
+        }
+    }
+
+    /**
+     * Numbers the distinct lines of the files it splits, so that equal lines get equal numbers.
+     */
+    static class Table {
+
+        private static class Key {
+            final byte[] data;
+            final int start;
+            final int end;
+            final int hash;
+
+            Key(byte[] data, int start, int end) {
+                this.data = data;
+                this.start = start;
+                this.end = end;
+                int h = 1;
+                for (int i = start; i < end; i += 1) {
+                    h = 31 * h + data[i];
+                }
+                this.hash = h;
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                Key other = (Key) o;
+                return hash == other.hash
+                        && Arrays.equals(data, start, end, other.data, other.start, other.end);
+            }
+        }
+
+        private final HashMap<Key, Integer> ids = new HashMap<>();
+
+        /**
+         * Return the lines of DATA.
+         */
+        Lines split(byte[] data) {
+            int count = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    count += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                count += 1;
+            }
+            int[] starts = new int[count + 1];
+            int line = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n') {
+                    line += 1;
+                    starts[line] = i + 1;
+                }
+            }
+            starts[count] = data.length;
+            int[] lineIDs = new int[count];
+            for (int i = 0; i < count; i += 1) {
+                Key key = new Key(data, starts[i], starts[i + 1]);
+                Integer id = ids.putIfAbsent(key, ids.size());
+                lineIDs[i] = id == null ? ids.size() - 1 : id;
+            }
+            return new Lines(data, starts, lineIDs);
+        }
+
+        int size() {
+            return ids.size();
+        }
+    }
+
+    /**
+     * Return, for every line of A, the line of B it is matched with in a longest common
+     * subsequence of A and B, or -1 if it is not part of it. A and B must be split by the same TABLE.
+     */
+    static int[] match(Table table, Lines a, Lines b) {
+        boolean[] inA = new boolean[table.size()];
+        boolean[] inB = new boolean[table.size()];
+        for (int id : a.ids) {
+            inA[id] = true;
+        }
+        for (int id : b.ids) {
+            inB[id] = true;
+        }
+        int[] aIndex = common(a.ids, inB);
+        int[] bIndex = common(b.ids, inA);
+        int[] aLines = new int[aIndex.length];
+        int[] bLines = new int[bIndex.length];
+        for (int i = 0; i < aIndex.length; i += 1) {
+            aLines[i] = a.ids[aIndex[i]];
+        }
+        for (int i = 0; i < bIndex.length; i += 1) {
+            bLines[i] = b.ids[bIndex[i]];
+        }
+
+        int[] matches = new int[aLines.length];
+        Arrays.fill(matches, -1);
+        int[] forward = new int[2 * (aLines.length + bLines.length) + 4];
+        int[] backward = new int[forward.length];
+        new Diff(aLines, bLines, matches, forward, backward).lcs(0, aLines.length, 0, bLines.length);
+
+        int[] result = new int[a.size()];
+        Arrays.fill(result, -1);
+        for (int i = 0; i < matches.length; i += 1) {
+            if (matches[i] >= 0) {
+                result[aIndex[i]] = bIndex[matches[i]];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the positions in IDS of the lines that occur in the other file, as told by OTHER.
+     */
+    private static int[] common(int[] ids, boolean[] other) {
+        int count = 0;
+        for (int id : ids) {
+            if (other[id]) {
+                count += 1;
+            }
+        }
+        int[] positions = new int[count];
+        count = 0;
+        for (int i = 0; i < ids.length; i += 1) {
+            if (other[ids[i]]) {
+                positions[count] = i;
+                count += 1;
+            }
+        }
+        return positions;
+    }
+
+    private final int[] a;
+    private final int[] b;
+    private final int[] matches;
+
+    /**
+     * Furthest x reached on each diagonal by the forward and the backward search,
+     * offset by half their length so that negative diagonals fit
+     */
+    private final int[] forward;
+    private final int[] backward;
+    private final int offset;
+
+    private Diff(int[] a, int[] b, int[] matches, int[] forward, int[] backward) {
+        this.a = a;
+        this.b = b;
+        this.matches = matches;
+        this.forward = forward;
+        this.backward = backward;
+        this.offset = forward.length / 2;
+    }
+
+    /**
+     * Match the lines of a longest common subsequence of A[aStart, aEnd) and B[bStart, bEnd).
+     */
+    private void lcs(int aStart, int aEnd, int bStart, int bEnd) {
+        while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+            matches[aStart] = bStart;
+            aStart += 1;
+            bStart += 1;
+        }
+        while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+            aEnd -= 1;
+            bEnd -= 1;
+            matches[aEnd] = bEnd;
+        }
+        if (aStart == aEnd || bStart == bEnd) {
+            return;
+        }
+        int[] snake = middleSnake(aStart, aEnd, bStart, bEnd);
+        lcs(aStart, snake[0], bStart, snake[1]);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            matches[x] = y;
+        }
+        lcs(snake[2], aEnd, snake[3], bEnd);
+    }
+
+    /**
+     * Return the start and end {x0, y0, x1, y1} of the middle snake of a shortest edit script
+     * from A[aStart, aEnd) to B[bStart, bEnd): the diagonal run of matching lines in the middle of it.
+     * <p></p>
+     * The forward search follows paths from the start on diagonals k = x - y, the backward search
+     * follows paths from the end of both ranges on diagonals k' = (n - x) - (m - y), and the first
+     * paths to overlap form a shortest edit script.
+     */
+    private int[] middleSnake(int aStart, int aEnd, int bStart, int bEnd) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int reverseK = delta - k;
+                if (odd && reverseK >= -(d - 1) && reverseK <= d - 1
+                        && x + backward[offset + reverseK] >= n) {
+                    return new int[]{aStart + x0, bStart + y0, aStart + x, bStart + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aEnd - 1 - x] == b[bEnd - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int forwardK = delta - k;
+                if (!odd && forwardK >= -d && forwardK <= d
+                        && x + forward[offset + forwardK] >= n) {
+                    return new int[]{aEnd - x, bEnd - y, aEnd - x0, bEnd - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("No middle snake found.");
+    }
+}
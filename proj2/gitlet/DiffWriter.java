@@ -0,0 +1,274 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the differences between two versions of files, either as a unified diff with CONTEXT
+ * unchanged lines around every change, or as a diffstat with the number of changed lines per file.
+ * <p></p>
+ * Lines are matched by a Diff, and hunks are written straight from the files as they are found,
+ * so the memory needed besides the two versions of a file is linear in its number of lines.
+ * Files with a NUL byte near the start are taken to be binary and are not compared line by line.
+ *
+ * @author Sol1tudeRain
+ */
+class DiffWriter {
+
+    /**
+     * Unchanged lines shown before and after each change
+     */
+    static final int CONTEXT = 3;
+
+    /**
+     * Widest bar of + and - signs in a diffstat
+     */
+    private static final int STAT_WIDTH = 50;
+
+    /**
+     * Bytes looked at to tell whether a file is binary
+     */
+    private static final int BINARY_CHECK_BYTES = 8000;
+
+    private static class Stat {
+        final String name;
+        final int insertions;
+        final int deletions;
+        final String binary;
+
+        Stat(String name, int insertions, int deletions, String binary) {
+            this.name = name;
+            this.insertions = insertions;
+            this.deletions = deletions;
+            this.binary = binary;
+        }
+    }
+
+    private final boolean stat;
+    private final OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+    private final List<Stat> stats = new ArrayList<>();
+
+    /**
+     * A writer of a diffstat if STAT is true, and of a unified diff otherwise.
+     */
+    DiffWriter(boolean stat) {
+        this.stat = stat;
+    }
+
+    /**
+     * Write the differences between the versions BEFORE and AFTER of the file NAME.
+     * A version is null if the file does not exist in it.
+     */
+    void file(String name, byte[] before, byte[] after) {
+        byte[] a = before == null ? new byte[0] : before;
+        byte[] b = after == null ? new byte[0] : after;
+        try {
+            if (binary(a) || binary(b)) {
+                if (stat) {
+                    stats.add(new Stat(name, 0, 0, "Bin " + a.length + " -> " + b.length + " bytes"));
+                } else {
+                    header(name, before, after, false);
+                    print("Binary files " + (before == null ? "/dev/null" : "a/" + name) + " and "
+                            + (after == null ? "/dev/null" : "b/" + name) + " differ\n");
+                }
+                return;
+            }
+            Diff.Table table = new Diff.Table();
+            Diff.Lines oldLines = table.split(a);
+            Diff.Lines newLines = table.split(b);
+            List<int[]> changes = changes(Diff.match(table, oldLines, newLines), newLines.size());
+            if (stat) {
+                int insertions = 0;
+                int deletions = 0;
+                for (int[] change : changes) {
+                    deletions += change[1] - change[0];
+                    insertions += change[3] - change[2];
+                }
+                stats.add(new Stat(name, insertions, deletions, null));
+            } else {
+                header(name, before, after, true);
+                hunks(changes, oldLines, newLines);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Write out what has been collected. A diffstat is only written here, once the widths
+     * of its columns are known.
+     */
+    void finish() {
+        try {
+            if (stat && !stats.isEmpty()) {
+                writeStat();
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static boolean binary(byte[] data) {
+        for (int i = 0; i < data.length && i < BINARY_CHECK_BYTES; i += 1) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the changes between two files, given for every old line the new line it is matched with,
+     * or -1. Each change is {oldFrom, oldTo, newFrom, newTo}: old lines [oldFrom, oldTo) are replaced
+     * by new lines [newFrom, newTo).
+     */
+    private static List<int[]> changes(int[] matches, int newSize) {
+        List<int[]> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < matches.length || j < newSize) {
+            if (i < matches.length && matches[i] == j) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int oldFrom = i;
+            while (i < matches.length && matches[i] < 0) {
+                i += 1;
+            }
+            int newTo = i < matches.length ? matches[i] : newSize;
+            changes.add(new int[]{oldFrom, i, j, newTo});
+            j = newTo;
+        }
+        return changes;
+    }
+
+    private void header(String name, byte[] before, byte[] after, boolean text) throws IOException {
+        print("diff --git a/" + name + " b/" + name + "\n");
+        if (before == null) {
+            print("new file\n");
+        } else if (after == null) {
+            print("deleted file\n");
+        }
+        if (text) {
+            print("--- " + (before == null ? "/dev/null" : "a/" + name) + "\n");
+            print("+++ " + (after == null ? "/dev/null" : "b/" + name) + "\n");
+        }
+    }
+
+    /**
+     * Write CHANGES in hunks, joining changes that are at most 2 * CONTEXT lines apart.
+     */
+    private void hunks(List<int[]> changes, Diff.Lines oldLines, Diff.Lines newLines) throws IOException {
+        int first = 0;
+        while (first < changes.size()) {
+            int last = first;
+            while (last + 1 < changes.size() && changes.get(last + 1)[0] - changes.get(last)[1] <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int[] start = changes.get(first);
+            int[] end = changes.get(last);
+            int oldFrom = Math.max(0, start[0] - CONTEXT);
+            int oldTo = Math.min(oldLines.size(), end[1] + CONTEXT);
+            int newFrom = start[2] - (start[0] - oldFrom);
+            int newTo = end[3] + (oldTo - end[1]);
+            print("@@ -" + range(oldFrom, oldTo) + " +" + range(newFrom, newTo) + " @@\n");
+
+            int position = oldFrom;
+            for (int c = first; c <= last; c += 1) {
+                int[] change = changes.get(c);
+                lines(' ', oldLines, position, change[0]);
+                lines('-', oldLines, change[0], change[1]);
+                lines('+', newLines, change[2], change[3]);
+                position = change[1];
+            }
+            lines(' ', oldLines, position, oldTo);
+            first = last + 1;
+        }
+    }
+
+    /**
+     * Return the line range [FROM, TO) as written in a hunk header: the first line, counting from 1,
+     * and the number of lines if it is not 1. An empty range is given by the line before it.
+     */
+    private static String range(int from, int to) {
+        if (to - from == 1) {
+            return String.valueOf(from + 1);
+        }
+        return (to == from ? from : from + 1) + "," + (to - from);
+    }
+
+    private void lines(char prefix, Diff.Lines lines, int from, int to) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(prefix);
+            int start = lines.starts[i];
+            int end = lines.starts[i + 1];
+            out.write(lines.data, start, end - start);
+            if (lines.data[end - 1] != '\n') {
+                print("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    private void writeStat() throws IOException {
+        int nameWidth = 0;
+        int maxChanges = 0;
+        int insertions = 0;
+        int deletions = 0;
+        for (Stat s : stats) {
+            nameWidth = Math.max(nameWidth, s.name.length());
+            maxChanges = Math.max(maxChanges, s.insertions + s.deletions);
+            insertions += s.insertions;
+            deletions += s.deletions;
+        }
+        int countWidth = String.valueOf(maxChanges).length();
+        for (Stat s : stats) {
+            StringBuilder line = new StringBuilder(" ");
+            line.append(String.format("%-" + nameWidth + "s | ", s.name));
+            if (s.binary != null) {
+                line.append(s.binary);
+            } else {
+                int changes = s.insertions + s.deletions;
+                line.append(String.format("%" + countWidth + "d", changes));
+                int plus = s.insertions;
+                int minus = s.deletions;
+                if (maxChanges > STAT_WIDTH) {
+                    plus = scale(plus, maxChanges);
+                    minus = scale(minus, maxChanges);
+                }
+                if (changes > 0) {
+                    line.append(' ').append("+".repeat(plus)).append("-".repeat(minus));
+                }
+            }
+            print(line.append('\n').toString());
+        }
+
+        StringBuilder summary = new StringBuilder(" " + stats.size() + (stats.size() == 1 ? " file" : " files") + " changed");
+        if (insertions > 0 || deletions == 0) {
+            summary.append(", ").append(insertions).append(insertions == 1 ? " insertion(+)" : " insertions(+)");
+        }
+        if (deletions > 0 || insertions == 0) {
+            summary.append(", ").append(deletions).append(deletions == 1 ? " deletion(-)" : " deletions(-)");
+        }
+        print(summary.append('\n').toString());
+    }
+
+    /**
+     * Return COUNT scaled so that MAX fills STAT_WIDTH, leaving a change of at least one line visible.
+     */
+    private static int scale(int count, int max) {
+        if (count == 0) {
+            return 0;
+        }
+        return Math.max(1, (int) ((long) count * STAT_WIDTH / max));
+    }
+
+    private void print(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Deletes the objects that no branch can reach, and packs the others.
+ * <p></p>
+ * gc marks the commits reachable from the branches, HEAD and the stash entries, their trees and blobs,
+ * and the blobs those blobs are rebuilt from, i.e. delta bases and chunks. Marked objects are moved into
+ * new packs.
+ * The others, such as commits left behind by rm-branch and reset, are deleted, along with their blame
+ * results, staged files that no longer belong to the staging area and temporary files left behind by
+ * interrupted commands.
+ * <p></p>
+ * gc takes the writer lock like any command that writes, but commands that only read, such as log or the
+ * remote side of a fetch, and daemons may still be using objects they found through an older state, e.g.
+ * the commits of a branch that was just removed. So an object written less than GRACE_MILLIS ago is kept
+ * even if no branch reaches it, together with everything it reaches. Such objects are kept loose,
+ * with the time they were written, and go away once they are older than that. "gc --prune=now" does
+ * without the grace period, and is only safe while no other gitlet command runs.
+ *
+ * @author Sol1tudeRain
+ */
+class GarbageCollector {
+
+    /**
+     * How long unreachable objects are kept after they are written, two weeks as in git
+     */
+    static final long GRACE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Marked commits, trees and blobs, the latter including chunks and delta bases
+     */
+    private final Set<String> commits = new HashSet<>();
+    private final Set<String> trees = new HashSet<>();
+    private final Set<String> blobs = new HashSet<>();
+
+    /**
+     * Mark the commit with the given ID, its ancestors, and everything they track.
+     */
+    private void markCommit(String commitID) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(commitID);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!commits.add(id)) {
+                continue;
+            }
+            Commit commit = getCommit(id);
+            if (commit == null) {
+                throw error("Missing commit %s.", id);
+            }
+            Tree.mark(commit.trackedFiles, trees, this::markBlob);
+            for (String parentID : commit.parents) {
+                if (parentID != null) {
+                    pending.push(parentID);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark the blob with the given ID and the blobs it is rebuilt from.
+     */
+    private void markBlob(String blobID) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(blobID);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (blobs.add(id)) {
+                ObjectStore.blobParts(id).forEach(pending::push);
+            }
+        }
+    }
+
+    /**
+     * Mark the stored object with the given TYPE and ID, and everything it reaches.
+     */
+    private void mark(byte type, String id) {
+        switch (type) {
+            case PackFile.COMMIT:
+                markCommit(id);
+                break;
+            case PackFile.TREE:
+                Tree.mark(Tree.of(id), trees, this::markBlob);
+                break;
+            default:
+                markBlob(id);
+                break;
+        }
+    }
+
+    private boolean marked(byte type, String id) {
+        switch (type) {
+            case PackFile.COMMIT:
+                return commits.contains(id);
+            case PackFile.TREE:
+                return trees.contains(id);
+            default:
+                return blobs.contains(id);
+        }
+    }
+
+    /**
+     * Delete unreachable objects written before CUTOFF, i.e. with no grace period if it is Long.MAX_VALUE,
+     * pack the reachable ones, and print how much was deleted.
+     */
+    static void run(long cutoff) throws IOException {
+        State gitletState = getState();
+        GarbageCollector reachable = new GarbageCollector();
+        reachable.markCommit(gitletState.HEAD);
+        gitletState.branches.values().forEach(reachable::markCommit);
+        gitletState.stashes.forEach(reachable::markCommit);
+
+        GarbageCollector kept = new GarbageCollector();
+        kept.commits.addAll(reachable.commits);
+        kept.trees.addAll(reachable.trees);
+        kept.blobs.addAll(reachable.blobs);
+        ObjectStore.forEachObject((type, id, time, size) -> {
+            if (time >= cutoff) {
+                kept.mark(type, id);
+            }
+        });
+
+        Set<String> removedIDs = new HashSet<>();
+        Set<String> removedCommitIDs = new HashSet<>();
+        List<Commit> removedCommits = new ArrayList<>();
+        long[] removedBytes = {0};
+        ObjectStore.forEachObject((type, id, time, size) -> {
+            if (kept.marked(type, id)) {
+                return;
+            }
+            removedIDs.add(id);
+            removedBytes[0] += size;
+            if (type == PackFile.COMMIT && removedCommitIDs.add(id)) {
+                removedCommits.add(getCommit(id));
+            }
+        });
+
+        // Staged files of adds that were undone or interrupted, and temporary files of interrupted commands
+        Set<String> staged = new HashSet<>(gitletState.stagedFilesForAddition.values());
+        List<File> leftovers = new ArrayList<>();
+        for (File file : listFiles(STAGING_DIR)) {
+            if (!staged.contains(file.getName()) && file.lastModified() < cutoff) {
+                leftovers.add(file);
+            }
+        }
+        for (File dir : List.of(GITLET_DIR, COMMITS_DIR, TREES_DIR, BLOBS_DIR, DELTAS_DIR, CHUNKED_DIR, PACKS_DIR,
+                BLAME_DIR)) {
+            for (File file : listFiles(dir)) {
+                if (file.getName().endsWith(Journal.TEMP_SUFFIX) && file.lastModified() < cutoff) {
+                    leftovers.add(file);
+                }
+            }
+        }
+        for (File file : leftovers) {
+            removedIDs.add(file.getPath());
+            removedBytes[0] += file.length();
+            Journal.delete(file);
+        }
+
+        boolean changed = ObjectStore.gc(reachable::marked, kept::marked);
+        MessageIndex.remove(removedCommits);
+        CommitCache.remove(removedCommitIDs);
+        Blame.remove(removedCommitIDs);
+        if (changed || !removedCommitIDs.isEmpty()) {
+            CommitGraph.get().write(removedCommitIDs);
+        }
+        if (!removedIDs.isEmpty()) {
+            System.out.printf("Removed %d unreachable objects, freeing %d bytes.%n",
+                    removedIDs.size(), removedBytes[0]);
+        }
+    }
+
+    private static List<File> listFiles(File dir) {
+        File[] files = dir.listFiles(File::isFile);
+        return files == null ? List.of() : List.of(files);
+    }
+}
@@ -0,0 +1,348 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Makes the changes of a command take effect all at once, even if gitlet is killed
+ * or the machine loses power in the middle of it.
+ * <p></p>
+ * Objects and staged files are named by their contents and never change, so they are written
+ * in place right away, each under a temporary name that is renamed when it is complete.
+ * Changes to files that do change, i.e. the state, working files and deleted files, are collected
+ * in a batch: new contents are written to temporary files, and the renames and deletions that
+ * install them are only recorded. commit() then
+ * <ol>
+ *     <li>syncs every file written by the batch, all at once on a pool of threads,</li>
+ *     <li>writes and syncs the journal, a list of the recorded renames and deletions,</li>
+ *     <li>applies the journal and syncs the directories it touched,</li>
+ *     <li>and deletes the journal.</li>
+ * </ol>
+ * A command that stops before step 2 leaves nothing but unused temporary files and objects.
+ * One that stops later leaves the journal, which recover() applies again before the next command.
+ * <p></p>
+ * The journal is laid out as
+ * <pre>
+ *     "GJNL" | count | (RENAME, from, to | DELETE, path) * count | SHA-1 of the preceding bytes
+ * </pre>
+ * with paths relative to CWD, so a journal that was only partly written is recognized and ignored.
+ *
+ * @author Sol1tudeRain
+ */
+class Journal {
+
+    private static final int MAGIC = 0x474a4e4c;
+    private static final byte RENAME = 1;
+    private static final byte DELETE = 2;
+    private static final int CHECKSUM_BYTES = UID_LENGTH / 2;
+    static final String TEMP_SUFFIX = ".gitlet-tmp";
+
+    /**
+     * Whether a batch is open. Without one, changes are made immediately.
+     */
+    private static boolean open;
+
+    /**
+     * Pending changes by target file: the temporary file to rename to it, or null to delete it
+     */
+    private static final Map<File, File> changes = new LinkedHashMap<>();
+
+    /**
+     * Files whose contents have to be on disk before the batch is committed
+     */
+    private static final Set<File> written = new LinkedHashSet<>();
+
+    private static final List<Runnable> afterCommit = new ArrayList<>();
+
+    /**
+     * Return the temporary file that new contents of FILE are written to.
+     */
+    static File temp(File file) {
+        return new File(file.getParentFile(), "." + file.getName() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Start collecting changes into a batch.
+     */
+    static synchronized void begin() {
+        open = true;
+        changes.clear();
+        written.clear();
+        afterCommit.clear();
+    }
+
+    /**
+     * Record that FILE was written and has to be synced before the batch is committed.
+     */
+    static synchronized void written(File file) {
+        if (open) {
+            written.add(file);
+        }
+    }
+
+    /**
+     * Move the complete file TEMP to TARGET at once, e.g. to store a new object.
+     */
+    static void install(File temp, File target) throws IOException {
+        Files.move(temp.toPath(), target.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        written(target);
+    }
+
+    /**
+     * Append RECORD to FILE, a list of records of the same length, right away.
+     * A record that an interrupted append left incomplete at the end is overwritten.
+     */
+    static void appendRecord(File file, byte[] record) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), WRITE, CREATE)) {
+            long end = channel.size() / record.length * record.length;
+            channel.write(ByteBuffer.wrap(record), end);
+            channel.truncate(end + record.length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        written(file);
+    }
+
+    /**
+     * Replace the contents of TARGET with CONTENTS when the batch is committed.
+     */
+    static void write(File target, byte[] contents) {
+        File temp = temp(target);
+        writeContents(temp, contents);
+        rename(temp, target);
+    }
+
+    /**
+     * Rename the complete file TEMP to TARGET when the batch is committed.
+     */
+    static synchronized void rename(File temp, File target) {
+        if (!open) {
+            apply(temp, target);
+            return;
+        }
+        written.add(temp);
+        changes.remove(target);
+        changes.put(target, temp);
+    }
+
+    /**
+     * Delete FILE, if it exists, when the batch is committed.
+     */
+    static synchronized void delete(File file) {
+        if (!open) {
+            apply(null, file);
+            return;
+        }
+        changes.remove(file);
+        changes.put(file, null);
+    }
+
+    /**
+     * Run ACTION once the batch has been committed, e.g. to update caches of the files it changes.
+     */
+    static synchronized void afterCommit(Runnable action) {
+        if (open) {
+            afterCommit.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Make all changes of the batch take effect, and close it.
+     */
+    static synchronized void commit() {
+        open = false;
+        try {
+            syncWritten();
+            if (!changes.isEmpty()) {
+                byte[] journal = encode(changes);
+                try (FileChannel channel = FileChannel.open(JOURNAL_PATH.toPath(), WRITE, CREATE, TRUNCATE_EXISTING)) {
+                    channel.write(ByteBuffer.wrap(journal));
+                    channel.force(true);
+                }
+                syncDirectory(GITLET_DIR);
+                applyAll(changes);
+                Files.delete(JOURNAL_PATH.toPath());
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        changes.clear();
+        written.clear();
+        List<Runnable> actions = new ArrayList<>(afterCommit);
+        afterCommit.clear();
+        actions.forEach(Runnable::run);
+    }
+
+    /**
+     * Drop the changes of the batch, e.g. because its command failed, and close it.
+     * Does nothing once the batch has been committed.
+     */
+    static synchronized void abort() {
+        if (!open) {
+            return;
+        }
+        for (File temp : changes.values()) {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+        open = false;
+        changes.clear();
+        written.clear();
+        afterCommit.clear();
+    }
+
+    /**
+     * Finish the batch of a command that was interrupted after writing its journal.
+     */
+    static synchronized void recover() {
+        if (!JOURNAL_PATH.isFile()) {
+            return;
+        }
+        Map<File, File> pending = decode(readContents(JOURNAL_PATH));
+        try {
+            if (pending != null) {
+                applyAll(pending);
+            }
+            Files.delete(JOURNAL_PATH.toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static void applyAll(Map<File, File> pending) throws IOException {
+        Set<File> directories = new LinkedHashSet<>();
+        pending.forEach((target, temp) -> {
+            apply(temp, target);
+            directories.add(target.getAbsoluteFile().getParentFile());
+        });
+        for (File directory : directories) {
+            syncDirectory(directory);
+        }
+    }
+
+    /**
+     * Rename TEMP to TARGET, or delete TARGET if TEMP is null. Applying a change twice is harmless.
+     */
+    private static void apply(File temp, File target) {
+        try {
+            if (temp == null) {
+                Files.deleteIfExists(target.toPath());
+            } else if (temp.exists()) {
+                Files.move(temp.toPath(), target.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Sync the files written by the batch and the directories they were created in.
+     * The files are synced concurrently, which lets the file system flush them together.
+     */
+    private static void syncWritten() throws IOException {
+        WorkingTree.runAll(written, Journal::sync);
+        Set<File> directories = new LinkedHashSet<>();
+        for (File file : written) {
+            directories.add(file.getAbsoluteFile().getParentFile());
+        }
+        for (File directory : directories) {
+            syncDirectory(directory);
+        }
+    }
+
+    /**
+     * Make the contents of FILE durable.
+     */
+    static void sync(File file) throws IOException {
+        if (file.exists()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Make the entries of DIRECTORY durable. Not every platform can sync a directory,
+     * and there it is left to the file system.
+     */
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    private static String relative(File file) {
+        Path cwd = CWD.toPath().toAbsolutePath().normalize();
+        return cwd.relativize(file.toPath().toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+
+    private static byte[] encode(Map<File, File> pending) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(pending.size());
+        for (Map.Entry<File, File> e : pending.entrySet()) {
+            if (e.getValue() == null) {
+                out.writeByte(DELETE);
+            } else {
+                out.writeByte(RENAME);
+                out.writeUTF(relative(e.getValue()));
+            }
+            out.writeUTF(relative(e.getKey()));
+        }
+        out.write(fromHex(sha1(bytes.toByteArray())));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Return the changes recorded in JOURNAL, or null if it is incomplete.
+     */
+    private static Map<File, File> decode(byte[] journal) {
+        int length = journal.length - CHECKSUM_BYTES;
+        if (length < 8 || !Arrays.equals(fromHex(sha1(Arrays.copyOf(journal, length))),
+                Arrays.copyOfRange(journal, length, journal.length))) {
+            return null;
+        }
+        Map<File, File> pending = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(journal, 0, length))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                byte type = in.readByte();
+                File temp = type == RENAME ? join(CWD, in.readUTF()) : null;
+                pending.put(join(CWD, in.readUTF()), temp);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return pending;
+    }
+}
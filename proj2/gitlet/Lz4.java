@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * A fast compressor in the format of LZ4 blocks, which trades compression ratio for speed.
+ * <p></p>
+ * A block is a list of sequences, each being
+ * <pre>
+ *     token | literal length* | literals | offset (2 bytes, little-endian) | match length*
+ * </pre>
+ * The high four bits of the token hold the number of literals and the low four bits the length
+ * of the match minus MIN_MATCH. A value of 15 is continued by the extension bytes that follow,
+ * which are added up until one of them is below 255. The match copies bytes from OFFSET bytes back
+ * in the output. The last sequence has literals only.
+ *
+ * @author Sol1tudeRain
+ */
+class Lz4 {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 14;
+    private static final int MAX_OFFSET = 65535;
+
+    /**
+     * The last LAST_LITERALS bytes are always literals, and no match starts in the last MATCH_LIMIT bytes.
+     */
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_LIMIT = 12;
+
+    /**
+     * After this many misses in a row, positions are skipped to get through incompressible data faster.
+     */
+    private static final int SKIP_TRIGGER = 6;
+
+    /**
+     * Return LENGTH bytes of DATA from OFFSET compressed.
+     */
+    static byte[] compress(byte[] data, int offset, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 16);
+        int[] table = new int[1 << HASH_BITS];
+        int end = offset + length;
+        int anchor = offset;
+        int i = offset;
+        int misses = 0;
+        while (i < end - MATCH_LIMIT) {
+            int sequence = readInt(data, i);
+            int slot = (sequence * 0x9e3779b1) >>> (32 - HASH_BITS);
+            // Table entries are positions plus one, so that zero means empty.
+            int ref = table[slot] - 1;
+            table[slot] = i + 1;
+            if (ref < offset || i - ref > MAX_OFFSET || readInt(data, ref) != sequence) {
+                misses += 1;
+                i += 1 + (misses >> SKIP_TRIGGER);
+                continue;
+            }
+            misses = 0;
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < end - LAST_LITERALS && data[ref + matchLength] == data[i + matchLength]) {
+                matchLength += 1;
+            }
+            writeSequence(out, data, anchor, i - anchor, i - ref, matchLength);
+            i += matchLength;
+            anchor = i;
+        }
+        writeSequence(out, data, anchor, end - anchor, 0, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the LENGTH bytes that the compressed block in DATA from OFFSET to END decompresses to.
+     */
+    static byte[] decompress(byte[] data, int offset, int end, int length) {
+        byte[] result = new byte[length];
+        int i = offset;
+        int written = 0;
+        try {
+            while (i < end) {
+                int token = data[i] & 0xff;
+                i += 1;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = data[i] & 0xff;
+                        i += 1;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(data, i, result, written, literals);
+                i += literals;
+                written += literals;
+                if (i >= end) {
+                    break;
+                }
+
+                int distance = (data[i] & 0xff) | (data[i + 1] & 0xff) << 8;
+                i += 2;
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = data[i] & 0xff;
+                        i += 1;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (distance == 0 || distance > written) {
+                    throw error("Corrupted object.");
+                }
+                // The match may overlap the bytes it produces, so it is copied one byte at a time.
+                for (int k = 0; k < matchLength; k += 1) {
+                    result[written] = result[written - distance];
+                    written += 1;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw error("Corrupted object.");
+        }
+        if (written != length) {
+            throw error("Corrupted object.");
+        }
+        return result;
+    }
+
+    private static int readInt(byte[] data, int i) {
+        return (data[i] & 0xff) | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff) << 16 | (data[i + 3] & 0xff) << 24;
+    }
+
+    private static void writeSequence(ByteArrayOutputStream out, byte[] data, int from, int literals,
+                                      int distance, int matchLength) {
+        int extraMatch = matchLength - MIN_MATCH;
+        int token = Math.min(literals, 15) << 4 | (matchLength == 0 ? 0 : Math.min(extraMatch, 15));
+        out.write(token);
+        if (literals >= 15) {
+            writeExtension(out, literals - 15);
+        }
+        out.write(data, from, literals);
+        if (matchLength == 0) {
+            return;
+        }
+        out.write(distance & 0xff);
+        out.write(distance >>> 8);
+        if (extraMatch >= 15) {
+            writeExtension(out, extraMatch - 15);
+        }
+    }
+
+    private static void writeExtension(ByteArrayOutputStream out, int value) {
+        while (value >= 255) {
+            out.write(255);
+            value -= 255;
+        }
+        out.write(value);
+    }
+}
@@ -3,6 +3,8 @@ package gitlet;
 import gitlet.Utils.*;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import static gitlet.Repository.*;
 
@@ -18,11 +20,58 @@ public class Main {
      * <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("daemon")) {
+            Daemon.command(args);
+            return;
+        }
+        // Server commands talk to the process that started them, so they are never handed to a daemon.
+        if (args.length > 0 && !Remote.SERVER_COMMANDS.contains(args[0]) && Daemon.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    /**
+     * Run the command in ARGS in this process. A command that fails prints its error
+     * and leaves the repository as it was. With -Dgitlet.stats=true or the "stats" config
+     * option, the counters of the commit cache are printed to standard error afterwards.
+     */
+    static void run(String[] args) {
         if (args.length == 0) {
             System.out.println("Please enter a command");
-            System.exit(0);
+            return;
         }
+        boolean readOnly = WriterLock.READ_ONLY_COMMANDS.contains(args[0]);
+        try {
+            /* Commands that change the repository wait for other writers, then finish the changes
+               of a command that was interrupted before collecting those of this one. Readers only
+               finish them if no one is writing, and before they read anything. */
+            if (GITLET_DIR.isDirectory() && !readOnly) {
+                WriterLock.acquire();
+                Journal.recover();
+            } else if (GITLET_DIR.isDirectory()) {
+                WriterLock.recoverIfIdle();
+            }
+            CommitGraph.refresh();
+            Journal.begin();
+            dispatch(args);
+            Journal.commit();
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            Journal.abort();
+            WriterLock.release();
+            if (!readOnly) {
+                MyUtils.forgetState();
+            }
+            if (Boolean.getBoolean("gitlet.stats") || CommitCache.stats) {
+                System.err.println("commit cache: " + CommitCache.hits() + " hits, "
+                        + CommitCache.misses() + " misses");
+            }
+        }
+    }
 
+    private static void dispatch(String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             case "init":
@@ -30,7 +79,7 @@ public class Main {
                 break;
             case "add":
                 try {
-                    add(args[1]);
+                    add(Arrays.copyOfRange(args, 1, args.length));
                 } catch (IOException ignored) {
 
                 }
@@ -49,7 +98,7 @@ public class Main {
                 log();
                 break;
             case "global-log":
-                global_log();
+                globalLog(args);
                 break;
             case "find":
                 find(args[1]);
@@ -57,6 +106,12 @@ public class Main {
             case "status":
                 status();
                 break;
+            case "diff":
+                diff(args);
+                break;
+            case "blame":
+                Blame.blame(args[1]);
+                break;
             case "checkout":
                 if (args.length == 2) {
                     checkoutBranch(args[1]);
@@ -92,12 +147,152 @@ public class Main {
 
                 }
                 break;
+            case "gc":
+                if (args.length > 2 || args.length == 2 && !args[1].equals("--prune=now")) {
+                    System.out.println("Incorrect operands.");
+                    break;
+                }
+                try {
+                    gc(args.length == 2);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+                break;
+            case "config":
+                if (args.length == 2) {
+                    config(args[1], null);
+                } else if (args.length == 3) {
+                    config(args[1], args[2]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "stash":
+                stash(args);
+                break;
+            case "sparse-checkout":
+                sparseCheckout(args);
+                break;
+            case "add-remote":
+                Remote.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                Remote.rmRemote(args[1]);
+                break;
+            case "fetch":
+                Remote.fetch(args[1], args[2]);
+                break;
+            case "push":
+                Remote.push(args[1], args[2]);
+                break;
+            case "pull":
+                try {
+                    Remote.pull(args[1], args[2]);
+                } catch (CloneNotSupportedException ignored) {
+
+                }
+                break;
+            case "upload-pack":
+                try {
+                    Remote.uploadPack();
+                } catch (IOException e) {
+                    throw Utils.error("Cannot talk to the local repository: %s", e.getMessage());
+                }
+                break;
+            case "receive-pack":
+                try {
+                    Remote.receivePack();
+                } catch (IOException e) {
+                    throw Utils.error("Cannot talk to the local repository: %s", e.getMessage());
+                }
+                break;
             default:
                 System.out.println("No command with that name exists.");
                 break;
         }
     }
 
+    /**
+     * Run stash with the operands in ARGS, which are nothing, list, pop or drop.
+     */
+    private static void stash(String[] args) {
+        if (args.length == 1) {
+            try {
+                Stash.push();
+            } catch (CloneNotSupportedException | IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        } else if (args.length == 2 && args[1].equals("list")) {
+            Stash.list();
+        } else if (args.length == 2 && args[1].equals("pop")) {
+            Stash.pop();
+        } else if (args.length == 2 && args[1].equals("drop")) {
+            Stash.drop();
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Run sparse-checkout with the operands in ARGS, which are set PATTERN..., list or disable.
+     */
+    private static void sparseCheckout(String[] args) {
+        if (args.length >= 3 && args[1].equals("set")) {
+            SparseCheckout.set(Arrays.asList(args).subList(2, args.length));
+        } else if (args.length == 2 && args[1].equals("list")) {
+            SparseCheckout.list();
+        } else if (args.length == 2 && args[1].equals("disable")) {
+            SparseCheckout.set(List.of());
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Run diff with the operands in ARGS, which are [--stat] [commit id [commit id]].
+     */
+    private static void diff(String[] args) {
+        int first = 1;
+        boolean stat = args.length > 1 && args[1].equals("--stat");
+        if (stat) {
+            first = 2;
+        }
+        if (args.length - first > 2) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        String from = args.length > first ? args[first] : null;
+        String to = args.length > first + 1 ? args[first + 1] : null;
+        Repository.diff(stat, from, to);
+    }
+
+    /**
+     * Run global-log with the options in ARGS, which are [--skip N] [-n N].
+     */
+    private static void globalLog(String[] args) {
+        int skip = 0;
+        int maxCount = -1;
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                int value = Integer.parseInt(args[i + 1]);
+                if (value < 0) {
+                    throw new NumberFormatException();
+                }
+                if (args[i].equals("--skip")) {
+                    skip = value;
+                } else if (args[i].equals("-n")) {
+                    maxCount = value;
+                } else {
+                    throw new NumberFormatException();
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        global_log(skip, maxCount);
+    }
+
     /**
      * Checks the number of arguments versus the expected number,
      * throws a RuntimeException if they do not match.
@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Merges two versions of a file line by line against their common ancestor, like diff3.
+ * <p></p>
+ * Both versions are matched with the ancestor by a Diff. Ancestor lines that are matched in both
+ * versions are stable and are kept; the lines between two stable runs form a chunk that each version
+ * may have changed. A chunk changed by one version only, or changed the same way by both, is taken
+ * from the version that changed it. A chunk changed differently by both is a conflict, and only that
+ * chunk is written out with both versions between conflict markers:
+ * <pre>
+ *     &lt;&lt;&lt;&lt;&lt;&lt;&lt; HEAD
+ *     lines of the current branch
+ *     =======
+ *     lines of the given branch
+ *     &gt;&gt;&gt;&gt;&gt;&gt;&gt;
+ * </pre>
+ *
+ * @author Sol1tudeRain
+ */
+class Merge3 {
+
+    private static final byte[] START = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The merged file
+     */
+    final byte[] contents;
+
+    /**
+     * Number of conflicting chunks in it
+     */
+    final int conflicts;
+
+    private Merge3(byte[] contents, int conflicts) {
+        this.contents = contents;
+        this.conflicts = conflicts;
+    }
+
+    /**
+     * Merge the versions OURS and THEIRS of a file whose common ancestor is BASE.
+     */
+    static Merge3 merge(byte[] base, byte[] ours, byte[] theirs) {
+        Diff.Table table = new Diff.Table();
+        Diff.Lines o = table.split(base);
+        Diff.Lines a = table.split(ours);
+        Diff.Lines b = table.split(theirs);
+        int[] inA = Diff.match(table, o, a);
+        int[] inB = Diff.match(table, o, b);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(ours.length, theirs.length));
+        int conflicts = 0;
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < o.size() || j < a.size() || k < b.size()) {
+            // The stable run starting here, if any
+            int stable = 0;
+            while (i + stable < o.size() && inA[i + stable] == j + stable && inB[i + stable] == k + stable) {
+                stable += 1;
+            }
+            if (stable > 0) {
+                o.write(out, i, i + stable);
+                i += stable;
+                j += stable;
+                k += stable;
+                continue;
+            }
+
+            // The chunk up to the next ancestor line that both versions kept
+            int nextI = i;
+            while (nextI < o.size() && (inA[nextI] < 0 || inB[nextI] < 0)) {
+                nextI += 1;
+            }
+            int nextJ = nextI < o.size() ? inA[nextI] : a.size();
+            int nextK = nextI < o.size() ? inB[nextI] : b.size();
+
+            if (same(o, i, nextI, a, j, nextJ)) {
+                b.write(out, k, nextK);
+            } else if (same(o, i, nextI, b, k, nextK) || same(a, j, nextJ, b, k, nextK)) {
+                a.write(out, j, nextJ);
+            } else {
+                conflicts += 1;
+                writeConflict(out, a, j, nextJ, b, k, nextK);
+            }
+            i = nextI;
+            j = nextJ;
+            k = nextK;
+        }
+        return new Merge3(out.toByteArray(), conflicts);
+    }
+
+    /**
+     * Return the conflict of a file that one version deleted and the other changed, which is
+     * all of OURS against all of THEIRS. A deleted version is empty.
+     */
+    static Merge3 conflict(byte[] ours, byte[] theirs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ours.length + theirs.length + 32);
+        out.writeBytes(START);
+        out.writeBytes(ours);
+        out.writeBytes(SEPARATOR);
+        out.writeBytes(theirs);
+        out.writeBytes(END);
+        return new Merge3(out.toByteArray(), 1);
+    }
+
+    private static void writeConflict(ByteArrayOutputStream out, Diff.Lines a, int aFrom, int aTo,
+                                      Diff.Lines b, int bFrom, int bTo) {
+        out.writeBytes(START);
+        a.write(out, aFrom, aTo);
+        out.writeBytes(SEPARATOR);
+        b.write(out, bFrom, bTo);
+        out.writeBytes(END);
+    }
+
+    /**
+     * Return whether lines [xFrom, xTo) of X are the same as lines [yFrom, yTo) of Y.
+     */
+    private static boolean same(Diff.Lines x, int xFrom, int xTo, Diff.Lines y, int yFrom, int yTo) {
+        if (xTo - xFrom != yTo - yFrom) {
+            return false;
+        }
+        for (int n = 0; n < xTo - xFrom; n += 1) {
+            if (x.ids[xFrom + n] != y.ids[yFrom + n]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,145 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Finds commits by their exact message without reading every commit.
+ * <p></p>
+ * Commits are put into 256 buckets under MESSAGES_DIR by the first byte of the SHA-1 value
+ * of their message. A bucket is a file of 40-byte records
+ * <pre>
+ *     message hash | commit ID
+ * </pre>
+ * in the order the commits were made, and is only ever appended to
+ * (see {@link Journal#appendRecord}), except when gc deletes commits.
+ * A repository without an index, e.g. one created by an older version of gitlet,
+ * gets one built from its commits.
+ *
+ * @author Sol1tudeRain
+ */
+class MessageIndex {
+
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD_BYTES = 2 * ID_BYTES;
+
+    private static byte[] messageHash(String message) {
+        return fromHex(sha1(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static File bucket(File dir, byte[] hash) {
+        return join(dir, toHex(Arrays.copyOf(hash, 1)));
+    }
+
+    private static void append(File dir, String message, String commitID) {
+        byte[] hash = messageHash(message);
+        byte[] record = Arrays.copyOf(hash, RECORD_BYTES);
+        System.arraycopy(fromHex(commitID), 0, record, ID_BYTES, ID_BYTES);
+        Journal.appendRecord(bucket(dir, hash), record);
+    }
+
+    /**
+     * Add the saved commit COMMIT to the index.
+     */
+    static void add(Commit commit) {
+        if (!MESSAGES_DIR.exists()) {
+            // Building the index picks up COMMIT as well.
+            build();
+            return;
+        }
+        append(MESSAGES_DIR, commit.message, commit.UID);
+    }
+
+    /**
+     * Return the IDs of all commits with the given MESSAGE, oldest first.
+     */
+    static List<String> find(String message) {
+        if (!MESSAGES_DIR.exists() && !WriterLock.tryAcquire()) {
+            // Someone else is writing, so look through the commits without building the index.
+            List<String> commitIDs = new ArrayList<>();
+            for (String commitID : ObjectStore.commitIDs()) {
+                if (getCommit(commitID).message.equals(message)) {
+                    commitIDs.add(commitID);
+                }
+            }
+            return commitIDs;
+        }
+        if (!MESSAGES_DIR.exists()) {
+            build();
+        }
+        byte[] hash = messageHash(message);
+        File bucket = bucket(MESSAGES_DIR, hash);
+        List<String> commitIDs = new ArrayList<>();
+        if (!bucket.exists()) {
+            return commitIDs;
+        }
+        byte[] records = readContents(bucket);
+        for (int offset = 0; offset + RECORD_BYTES <= records.length; offset += RECORD_BYTES) {
+            if (Arrays.equals(records, offset, offset + ID_BYTES, hash, 0, ID_BYTES)) {
+                commitIDs.add(toHex(Arrays.copyOfRange(records, offset + ID_BYTES, offset + RECORD_BYTES)));
+            }
+        }
+        return commitIDs;
+    }
+
+    /**
+     * Remove COMMITS, which are being deleted, from the index when the batch is committed.
+     */
+    static void remove(Collection<Commit> commits) {
+        if (!MESSAGES_DIR.exists()) {
+            return;
+        }
+        Map<File, Set<String>> removed = new HashMap<>();
+        for (Commit commit : commits) {
+            removed.computeIfAbsent(bucket(MESSAGES_DIR, messageHash(commit.message)), b -> new HashSet<>())
+                    .add(commit.UID);
+        }
+        removed.forEach((bucket, commitIDs) -> {
+            if (!bucket.exists()) {
+                return;
+            }
+            byte[] records = readContents(bucket);
+            ByteArrayOutputStream kept = new ByteArrayOutputStream(records.length);
+            for (int offset = 0; offset + RECORD_BYTES <= records.length; offset += RECORD_BYTES) {
+                String commitID = toHex(Arrays.copyOfRange(records, offset + ID_BYTES, offset + RECORD_BYTES));
+                if (!commitIDs.contains(commitID)) {
+                    kept.write(records, offset, RECORD_BYTES);
+                }
+            }
+            Journal.write(bucket, kept.toByteArray());
+        });
+    }
+
+    /**
+     * Index every commit of the repository. The index is built in a temporary directory
+     * and renamed into place, so an interrupted build leaves no partial index behind.
+     */
+    private static void build() {
+        File temp = join(GITLET_DIR, "messages.tmp");
+        if (temp.exists()) {
+            for (File file : temp.listFiles()) {
+                safeDelete(file);
+            }
+        }
+        temp.mkdir();
+        for (String commitID : ObjectStore.commitIDs()) {
+            append(temp, getCommit(commitID).message, commitID);
+        }
+        if (!temp.renameTo(MESSAGES_DIR)) {
+            throw error("Could not write the message index.");
+        }
+    }
+}
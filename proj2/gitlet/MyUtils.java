@@ -2,6 +2,7 @@ package gitlet;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 
 import static gitlet.Repository.*;
@@ -27,19 +28,61 @@ public class MyUtils {
     }
 
     /**
-     * Return the gitlet state object
+     * The state last read, and the stamp of the file it was read from
+     */
+    private static State cachedState;
+    private static Object cachedStateStamp;
+
+    /**
+     * Return the gitlet state object, and apply its config options to the object store
+     * and the commit cache.
+     * The state is only read again once the state file has been replaced, which matters to a daemon
+     * running many commands.
      */
     public static State getState() {
-        if (STATE_PATH.exists()) {
-            return readObject(STATE_PATH, State.class);
+        Object stamp = stamp(STATE_PATH);
+        if (stamp == null) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        if (!stamp.equals(cachedStateStamp)) {
+            cachedState = State.decode(readContents(STATE_PATH));
+            cachedStateStamp = stamp;
+        }
+        ObjectStore.configure(cachedState.config);
+        CommitCache.configure(cachedState.config);
+        return cachedState;
+    }
+
+    /**
+     * Forget the state last read, e.g. because a command may have changed it without saving it.
+     */
+    public static void forgetState() {
+        cachedState = null;
+        cachedStateStamp = null;
+    }
+
+    /**
+     * Return a value that changes whenever FILE is replaced or modified: its inode, modification time
+     * and size. Returns null if FILE does not exist.
+     */
+    public static Object stamp(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return Arrays.asList(attributes.fileKey(), attributes.lastModifiedTime(), attributes.size());
+        } catch (IOException e) {
+            return null;
         }
-        System.out.println("Not in an initialized Gitlet directory.");
-        System.exit(0);
-        return null;
     }
 
     /**
-     * Return a commit object with the specified ID
+     * Shortest abbreviated commit ID that is accepted
+     */
+    public static final int MIN_SHORT_ID_LENGTH = 4;
+
+    /**
+     * Return a commit object with the specified ID, which may be any unambiguous prefix
+     * of at least MIN_SHORT_ID_LENGTH digits. Abbreviated IDs are looked up in the sorted
+     * commit graph with a binary search. Commits come from the CommitCache and must not be changed.
      */
     public static Commit getCommit(String commitID) {
         if (commitID == null) {
@@ -47,9 +90,11 @@ public class MyUtils {
         }
 
         String id;
-        if (commitID.length() == 8) {
-            State gitletState = getState();
-            id = gitletState.shortIDs.get(commitID);
+        if (commitID.length() < UID_LENGTH) {
+            if (commitID.length() < MIN_SHORT_ID_LENGTH || !commitID.matches("[0-9a-f]+")) {
+                return null;
+            }
+            id = CommitGraph.get().resolve(commitID);
             if (id == null) {
                 return null;
             }
@@ -57,22 +102,16 @@ public class MyUtils {
             id = commitID;
         }
 
-        File commitPath = join(COMMITS_DIR, id);
-        if (commitPath.exists()) {
-            return readObject(commitPath, Commit.class);
-        } else {
-            return null;
-        }
-
+        return CommitCache.get(id);
     }
 
     /**
-     * Delete all files in a directory
+     * Delete all files in the directory DIRPATH when the current batch of changes is committed.
      */
     public static void clearDir(File dirPath) {
         File[] filesList = dirPath.listFiles();
         for (File file : filesList) {
-            file.delete();
+            Journal.delete(file);
         }
     }
 
@@ -81,48 +120,13 @@ public class MyUtils {
     }
 
     /**
-     * Find the latest common ancestor of the current and given branch heads.
-     * Inspired by BFS algorithm.
+     * Find the latest common ancestor of the current and given branch heads,
+     * using the generation numbers of the commit graph.
      *
      * @return A commit object if found, otherwise null.
      */
     public static Commit getSplitPoint(String currentBranch, String givenBranch) {
-        HashSet<String> markedCommitsA = new HashSet<>();
-        HashSet<String> markedCommitsB = new HashSet<>();
-
-        Queue<String> fringeA = new LinkedList<>();
-        Queue<String> fringeB = new LinkedList<>();
-        fringeA.add(currentBranch);
-        fringeB.add(givenBranch);
-
-        while (!fringeA.isEmpty() || !fringeB.isEmpty()) {
-            Commit commitA = getCommit(fringeA.poll());
-            if (commitA != null) {
-                if (markedCommitsB.contains(commitA.UID)) {
-                    return commitA;
-                }
-                markedCommitsA.add(commitA.UID);
-                for (String commitID : commitA.parents) {
-                    if (!markedCommitsA.contains(commitID)) {
-                        fringeA.add(commitID);
-                    }
-                }
-            }
-
-            Commit commitB = getCommit(fringeB.poll());
-            if (commitB != null) {
-                if (markedCommitsA.contains(commitB.UID)) {
-                    return commitB;
-                }
-                markedCommitsB.add(commitB.UID);
-                for (String commitID : commitB.parents) {
-                    if (!markedCommitsB.contains(commitID)) {
-                        fringeB.add(commitID);
-                    }
-                }
-            }
-        }
-        return null;
+        return getCommit(CommitGraph.get().mergeBase(currentBranch, givenBranch));
     }
 
 }
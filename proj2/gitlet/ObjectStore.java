@@ -0,0 +1,772 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Looks up commits, trees and blobs by ID.
+ * <p></p>
+ * An object is either loose, i.e. a file named by its ID in COMMITS_DIR, TREES_DIR or BLOBS_DIR,
+ * or stored in one of the packs in PACKS_DIR. New objects are always written loose,
+ * and gc() moves those that are still reachable into a pack (see {@link GarbageCollector}).
+ * <p></p>
+ * A blob may also be stored as a delta against an older version of the same file,
+ * in DELTAS_DIR or in a pack. Such a record holds the 20-byte ID of its base followed by
+ * the delta (see {@link Delta}). Chains of deltas are at most MAX_DELTA_DEPTH long.
+ * <p></p>
+ * When chunking is enabled, large blobs are split into content-defined chunks (see {@link Chunker}),
+ * which are stored as blobs of their own and shared by every blob that contains them.
+ * Such a blob is stored as a chunk list, in CHUNKED_DIR or in a pack, holding the 20-byte IDs
+ * of its chunks in order.
+ * <p></p>
+ * Deltas are made and applied in memory, so blobs larger than MAX_DELTA_SIZE are never stored
+ * as deltas, nor used as bases. They are split into chunks instead, whether chunking is enabled
+ * or not, so that a new version only adds the chunks that changed, e.g. the end of a growing log.
+ * <p></p>
+ * Objects are sent to other repositories in packs too (see {@link Remote}).
+ * <p></p>
+ * Commits, trees, blobs, chunks and delta records may be compressed (see {@link Compression}),
+ * with the codec set by the "compression" config option at the time they were written.
+ * Packs hold objects exactly as they were stored loose.
+ *
+ * @author Sol1tudeRain
+ */
+class ObjectStore {
+
+    /**
+     * Maximum number of deltas applied to rebuild one blob
+     */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /**
+     * Files smaller than this are always stored in full.
+     */
+    private static final long MIN_DELTA_SIZE = 1024;
+
+    /**
+     * Files larger than this are never stored as deltas, which needs both versions in memory,
+     * but split into chunks, so that their new versions still share the unchanged parts.
+     */
+    private static final long MAX_DELTA_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * Files smaller than this are never split into chunks.
+     */
+    private static final long MIN_CHUNKED_SIZE = 4L * Chunker.MAX_SIZE;
+
+    private static final int BASE_ID_BYTES = 20;
+
+    /**
+     * Whether new large blobs are split into chunks, as set by the "chunking" config option
+     */
+    static boolean chunking;
+
+    /**
+     * Codec that new objects are compressed with, as set by the "compression" config option
+     */
+    static byte codec = Compression.NONE;
+
+    /**
+     * Apply the config options of this repository that concern stored objects.
+     */
+    static void configure(Map<String, String> config) {
+        chunking = Boolean.parseBoolean(config.get("chunking"));
+        codec = Compression.codec(config.getOrDefault("compression", "none"));
+    }
+
+    /**
+     * Packs of this repository, loaded on first use
+     */
+    private static List<PackFile> packs;
+
+    static synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = PackFile.loadAll(PACKS_DIR);
+        }
+        return packs;
+    }
+
+    /**
+     * Load the packs again if another process, i.e. gc, has replaced them since they were loaded.
+     * Returns whether they were replaced, in which case a missing object may now be found.
+     */
+    private static synchronized boolean reloadPacks() {
+        if (packs == null) {
+            return false;
+        }
+        Set<String> loaded = new HashSet<>();
+        for (PackFile pack : packs) {
+            loaded.add(pack.indexPath.getName());
+        }
+        String[] current = PACKS_DIR.list((d, name) -> name.endsWith(".idx"));
+        // Repositories made by older versions of gitlet have no packs directory.
+        if (loaded.equals(current == null ? Set.of() : Set.of(current))) {
+            return false;
+        }
+        packs = null;
+        return true;
+    }
+
+    /**
+     * Return the contents of the packed object with the given ID and TYPE, or null if no pack has it.
+     */
+    private static ByteBuffer findPacked(String id, byte type) {
+        byte[] key = fromHex(id);
+        if (key == null) {
+            return null;
+        }
+        for (PackFile pack : packs()) {
+            int position = pack.find(key);
+            if (position >= 0 && pack.type(position) == type) {
+                return pack.contents(position);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Return the serialized commit with the given ID, or null if there is no such commit.
+     */
+    static byte[] readCommit(String commitID) {
+        File commitPath = join(COMMITS_DIR, commitID);
+        if (commitPath.isFile()) {
+            return Compression.decompress(readContents(commitPath));
+        }
+        ByteBuffer packed = findPacked(commitID, PackFile.COMMIT);
+        if (packed == null && reloadPacks()) {
+            return readCommit(commitID);
+        }
+        return packed == null ? null : Compression.decompress(toBytes(packed));
+    }
+
+    /**
+     * Store the serialized commit CONTENTS with the given ID.
+     */
+    static void writeCommit(String commitID, byte[] contents) {
+        writeObject(join(COMMITS_DIR, commitID), Compression.compress(contents, codec));
+    }
+
+    /**
+     * Return the encoded tree with the given ID, or null if there is no such tree.
+     */
+    static byte[] readTree(String treeID) {
+        File treePath = join(TREES_DIR, treeID);
+        if (treePath.isFile()) {
+            return Compression.decompress(readContents(treePath));
+        }
+        ByteBuffer packed = findPacked(treeID, PackFile.TREE);
+        if (packed == null && reloadPacks()) {
+            return readTree(treeID);
+        }
+        return packed == null ? null : Compression.decompress(toBytes(packed));
+    }
+
+    /**
+     * Store the encoded tree CONTENTS with the given ID, unless it is already stored.
+     */
+    static void writeTree(String treeID, byte[] contents) {
+        File treePath = join(TREES_DIR, treeID);
+        if (treePath.isFile() || findPacked(treeID, PackFile.TREE) != null) {
+            return;
+        }
+        TREES_DIR.mkdir();
+        writeObject(treePath, Compression.compress(contents, codec));
+    }
+
+    /**
+     * Write the object file TARGET, which only appears once it is complete.
+     */
+    private static void writeObject(File target, byte[] contents) {
+        File temp = Journal.temp(target);
+        writeContents(temp, contents);
+        try {
+            Journal.install(temp, target);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    static boolean hasBlob(String blobID) {
+        return join(BLOBS_DIR, blobID).isFile() || findPacked(blobID, PackFile.BLOB) != null
+                || readDeltaRecord(blobID) != null || readChunkList(blobID) != null;
+    }
+
+    /**
+     * Return the contents of the blob with the given ID if it is stored in full or in chunks,
+     * otherwise null.
+     */
+    private static byte[] readFullBlob(String blobID) {
+        File blobPath = join(BLOBS_DIR, blobID);
+        if (blobPath.isFile()) {
+            return Compression.decompress(readContents(blobPath));
+        }
+        ByteBuffer packed = findPacked(blobID, PackFile.BLOB);
+        if (packed != null) {
+            return Compression.decompress(toBytes(packed));
+        }
+        byte[] chunkList = readChunkList(blobID);
+        if (chunkList == null) {
+            return null;
+        }
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        for (String chunkID : chunkIDs(chunkList)) {
+            contents.writeBytes(readBlob(chunkID));
+        }
+        return contents.toByteArray();
+    }
+
+    /**
+     * Return the chunk list of the blob with the given ID, or null if it is not stored in chunks.
+     */
+    private static byte[] readChunkList(String blobID) {
+        File chunkListPath = join(CHUNKED_DIR, blobID);
+        if (chunkListPath.isFile()) {
+            return readContents(chunkListPath);
+        }
+        ByteBuffer packed = findPacked(blobID, PackFile.CHUNKED);
+        return packed == null ? null : toBytes(packed);
+    }
+
+    private static List<String> chunkIDs(byte[] chunkList) {
+        List<String> ids = new ArrayList<>();
+        for (int offset = 0; offset < chunkList.length; offset += BASE_ID_BYTES) {
+            ids.add(toHex(Arrays.copyOfRange(chunkList, offset, offset + BASE_ID_BYTES)));
+        }
+        return ids;
+    }
+
+    /**
+     * Return the delta record of the blob with the given ID, or null if it is not stored as a delta.
+     */
+    private static byte[] readDeltaRecord(String blobID) {
+        File deltaPath = join(DELTAS_DIR, blobID);
+        if (deltaPath.isFile()) {
+            return Compression.decompress(readContents(deltaPath));
+        }
+        ByteBuffer packed = findPacked(blobID, PackFile.DELTA);
+        return packed == null ? null : Compression.decompress(toBytes(packed));
+    }
+
+    private static String baseOf(byte[] deltaRecord) {
+        return toHex(Arrays.copyOf(deltaRecord, BASE_ID_BYTES));
+    }
+
+    /**
+     * Return the number of deltas that have to be applied to rebuild the blob with the given ID.
+     */
+    private static int deltaDepth(String blobID) {
+        int depth = 0;
+        byte[] record;
+        while ((record = readDeltaRecord(blobID)) != null) {
+            depth += 1;
+            blobID = baseOf(record);
+        }
+        return depth;
+    }
+
+    /**
+     * Return the contents of the blob with the given ID.
+     */
+    static byte[] readBlob(String blobID) {
+        String requestedID = blobID;
+        Deque<byte[]> deltas = new ArrayDeque<>();
+        byte[] contents = readFullBlob(blobID);
+        while (contents == null) {
+            byte[] record = readDeltaRecord(blobID);
+            if (record == null) {
+                if (reloadPacks()) {
+                    return readBlob(requestedID);
+                }
+                throw error("Missing blob %s.", blobID);
+            }
+            deltas.push(record);
+            blobID = baseOf(record);
+            contents = readFullBlob(blobID);
+        }
+        while (!deltas.isEmpty()) {
+            contents = Delta.apply(contents, deltas.pop(), BASE_ID_BYTES);
+        }
+        return contents;
+    }
+
+    /**
+     * Write the contents of the blob with the given ID to DES, overwriting it if it exists.
+     */
+    static void checkoutBlob(String blobID, File des) throws IOException {
+        File blobPath = join(BLOBS_DIR, blobID);
+        if (blobPath.isFile()) {
+            Compression.decompressFile(blobPath, des);
+            return;
+        }
+        ByteBuffer contents = findPacked(blobID, PackFile.BLOB);
+        if (contents != null) {
+            try (InputStream in = Compression.open(contents)) {
+                Files.copy(in, des.toPath(), REPLACE_EXISTING);
+            }
+            return;
+        }
+        byte[] chunkList = readChunkList(blobID);
+        if (chunkList == null) {
+            Files.write(des.toPath(), readBlob(blobID));
+            return;
+        }
+        try (FileChannel out = FileChannel.open(des.toPath(), WRITE, CREATE, TRUNCATE_EXISTING)) {
+            // Write one chunk at a time, so that large files are never held in memory.
+            for (String chunkID : chunkIDs(chunkList)) {
+                ByteBuffer chunk = ByteBuffer.wrap(readBlob(chunkID));
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Store the contents of SOURCE as the blob with the given ID, unless it is already stored.
+     * If BASEID names an earlier version of the same file, the blob is stored as a delta against it
+     * when that saves at least half of the space and keeps the delta chain short. If either version
+     * is larger than MAX_DELTA_SIZE, the blob is split into chunks instead, so that two large versions
+     * are never held in memory. SOURCE is a file in the staging area, i.e. already stored with the
+     * current codec.
+     */
+    static void writeBlob(String blobID, File source, String baseID) throws IOException {
+        if (hasBlob(blobID)) {
+            return;
+        }
+        boolean large = source.length() >= MIN_DELTA_SIZE && (!sizeAtMost(source, MAX_DELTA_SIZE)
+                || baseID != null && !blobSizeAtMost(baseID, MAX_DELTA_SIZE));
+        if (large || chunking && source.length() >= MIN_CHUNKED_SIZE) {
+            writeChunked(blobID, source);
+            return;
+        }
+        if (baseID != null && source.length() >= MIN_DELTA_SIZE && deltaDepth(baseID) < MAX_DELTA_DEPTH) {
+            byte[] target = Compression.decompress(readContents(source));
+            byte[] delta = Delta.create(readBlob(baseID), target);
+            if (delta.length < target.length / 2) {
+                ByteArrayOutputStream record = new ByteArrayOutputStream(BASE_ID_BYTES + delta.length);
+                record.writeBytes(fromHex(baseID));
+                record.writeBytes(delta);
+                DELTAS_DIR.mkdir();
+                writeObject(join(DELTAS_DIR, blobID), Compression.compress(record.toByteArray(), codec));
+                return;
+            }
+        }
+        File blobPath = join(BLOBS_DIR, blobID);
+        File temp = Journal.temp(blobPath);
+        Files.copy(source.toPath(), temp.toPath(), REPLACE_EXISTING);
+        Journal.install(temp, blobPath);
+    }
+
+    /**
+     * Return whether SOURCE, a stored or staged file, holds at most LIMIT bytes once decompressed.
+     */
+    private static boolean sizeAtMost(File source, long limit) throws IOException {
+        if (source.length() > limit) {
+            return false;
+        }
+        try (InputStream in = Compression.decompressing(Files.newInputStream(source.toPath()))) {
+            return sizeAtMost(in, limit);
+        }
+    }
+
+    /**
+     * Return whether IN holds at most LIMIT bytes. Reading stops after LIMIT bytes.
+     */
+    private static boolean sizeAtMost(InputStream in, long limit) throws IOException {
+        long remaining = limit;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    return true;
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        return in.read() < 0;
+    }
+
+    /**
+     * Return whether the blob with the given ID is at most LIMIT bytes long,
+     * without rebuilding it. Blobs stored in chunks are taken to be larger.
+     */
+    private static boolean blobSizeAtMost(String blobID, long limit) throws IOException {
+        File blobPath = join(BLOBS_DIR, blobID);
+        if (blobPath.isFile()) {
+            return sizeAtMost(blobPath, limit);
+        }
+        ByteBuffer packed = findPacked(blobID, PackFile.BLOB);
+        if (packed != null) {
+            try (InputStream in = Compression.open(packed)) {
+                return sizeAtMost(in, limit);
+            }
+        }
+        byte[] record = readDeltaRecord(blobID);
+        if (record != null) {
+            int[] pos = {BASE_ID_BYTES};
+            Codec.readVarint(record, pos);
+            return Codec.readVarint(record, pos) <= limit;
+        }
+        return false;
+    }
+
+    /**
+     * Store CONTENTS as the blob with the given ID, unless it is already stored.
+     */
+    static void writeBlob(String blobID, byte[] contents) {
+        if (!hasBlob(blobID)) {
+            writeObject(join(BLOBS_DIR, blobID), Compression.compress(contents, codec));
+        }
+    }
+
+    /**
+     * Store the contents of SOURCE as the blob with the given ID, split into chunks.
+     * Only chunks that are not stored yet are written, and the chunk list is written last.
+     */
+    private static void writeChunked(String blobID, File source) throws IOException {
+        ByteArrayOutputStream chunkList = new ByteArrayOutputStream();
+        try (InputStream in = Compression.decompressing(Files.newInputStream(source.toPath()))) {
+            Chunker.split(in, (buffer, offset, length) -> {
+                byte[] chunk = Arrays.copyOfRange(buffer, offset, offset + length);
+                String chunkID = sha1(chunk);
+                writeBlob(chunkID, chunk);
+                chunkList.writeBytes(fromHex(chunkID));
+            });
+        }
+        CHUNKED_DIR.mkdir();
+        writeObject(join(CHUNKED_DIR, blobID), chunkList.toByteArray());
+    }
+
+    /**
+     * Return the object files in DIR, leaving out temporary files that an interrupted
+     * command may have left behind.
+     */
+    private static List<File> looseObjects(File dir) {
+        List<File> objects = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (fromHex(file.getName()) != null) {
+                    objects.add(file);
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Return the IDs of all commits, loose or packed.
+     */
+    static List<String> commitIDs() {
+        List<String> ids = new ArrayList<>();
+        for (File file : looseObjects(COMMITS_DIR)) {
+            ids.add(file.getName());
+        }
+        for (PackFile pack : packs()) {
+            for (int i = 0; i < pack.size; i += 1) {
+                if (pack.type(i) == PackFile.COMMIT) {
+                    ids.add(pack.id(i));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Add the object with the given ID and TYPE to WRITER as it is stored, loose in DIR or packed.
+     * Returns false if it is not stored that way.
+     */
+    private static boolean packStored(PackFile.Writer writer, File dir, byte type, String id) {
+        File path = join(dir, id);
+        if (path.isFile()) {
+            if (path.length() > PackFile.MAX_OBJECT_SIZE) {
+                throw error("Object %s is too large to send.", id);
+            }
+            writer.add(id, type, path);
+            return true;
+        }
+        ByteBuffer packed = findPacked(id, type);
+        if (packed == null) {
+            return false;
+        }
+        writer.add(id, type, packed);
+        return true;
+    }
+
+    /**
+     * Add the commit with the given ID to WRITER, to be sent to another repository.
+     */
+    static void packCommit(PackFile.Writer writer, String commitID) {
+        if (!packStored(writer, COMMITS_DIR, PackFile.COMMIT, commitID)) {
+            throw error("Missing commit %s.", commitID);
+        }
+    }
+
+    /**
+     * Add the tree with the given ID to WRITER, to be sent to another repository. Commits written by
+     * older versions of gitlet list their files themselves, so their trees are not stored, and are not needed.
+     */
+    static void packTree(PackFile.Writer writer, String treeID) {
+        packStored(writer, TREES_DIR, PackFile.TREE, treeID);
+    }
+
+    /**
+     * Add the blob with the given ID to WRITER, to be sent to another repository, with the chunks it is made of.
+     * A blob stored as a delta is sent as one if its base is in BASES, i.e. the other repository has the base
+     * or is sent it too. Otherwise it is sent in full.
+     */
+    static void packBlob(PackFile.Writer writer, String blobID, Set<String> bases) {
+        if (packStored(writer, BLOBS_DIR, PackFile.BLOB, blobID)) {
+            return;
+        }
+        byte[] chunkList = readChunkList(blobID);
+        if (chunkList != null) {
+            writer.add(blobID, PackFile.CHUNKED, ByteBuffer.wrap(chunkList));
+            for (String chunkID : chunkIDs(chunkList)) {
+                packBlob(writer, chunkID, bases);
+            }
+            return;
+        }
+        byte[] record = readDeltaRecord(blobID);
+        if (record != null && bases.contains(baseOf(record))
+                && packStored(writer, DELTAS_DIR, PackFile.DELTA, blobID)) {
+            return;
+        }
+        writer.add(blobID, PackFile.BLOB, ByteBuffer.wrap(Compression.compress(readBlob(blobID), codec)));
+    }
+
+    /**
+     * Store the packs another repository sends through IN (see {@link PackFile.Writer#send}).
+     */
+    static synchronized void receive(DataInputStream in) throws IOException {
+        PACKS_DIR.mkdir();
+        List<File> indexes = PackFile.receive(in, PACKS_DIR);
+        packs = null;
+        // Objects are found by ID, so one whose contents do not match its ID must never be kept.
+        try {
+            for (File indexPath : indexes) {
+                PackFile pack = new PackFile(indexPath);
+                for (int position = 0; position < pack.size; position += 1) {
+                    if (!hasID(pack.type(position), pack.contents(position), pack.id(position))) {
+                        throw error("Corrupted pack received.");
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (File indexPath : indexes) {
+                String name = indexPath.getName();
+                Files.deleteIfExists(indexPath.toPath());
+                Files.deleteIfExists(join(PACKS_DIR, name.substring(0, name.length() - 4) + ".pack").toPath());
+            }
+            packs = null;
+            throw e instanceof GitletException ? (GitletException) e : error("Corrupted pack received.");
+        }
+    }
+
+    /**
+     * Return whether CONTENTS, a stored object of the given TYPE, has the given ID, i.e. whether
+     * the contents it stands for hash to it the way they were named when they were stored.
+     */
+    private static boolean hasID(byte type, ByteBuffer contents, String id) throws IOException {
+        switch (type) {
+            case PackFile.COMMIT:
+                return Commit.hasID(Compression.decompress(toBytes(contents)), id);
+            case PackFile.TREE:
+                return sha1(Compression.decompress(toBytes(contents))).equals(id);
+            case PackFile.BLOB:
+                try (InputStream in = Compression.open(contents.duplicate())) {
+                    if (sha1(in).equals(id)) {
+                        return true;
+                    }
+                }
+                // Older versions named files by their contents read as UTF-8 text.
+                byte[] bytes = Compression.decompress(toBytes(contents));
+                return sha1(new String(bytes, StandardCharsets.UTF_8)).equals(id);
+            case PackFile.DELTA:
+                byte[] record = Compression.decompress(toBytes(contents));
+                return sha1(Delta.apply(readBlob(baseOf(record)), record, BASE_ID_BYTES)).equals(id);
+            case PackFile.CHUNKED:
+                MessageDigest digest = PackFile.newDigest();
+                for (String chunkID : chunkIDs(toBytes(contents))) {
+                    digest.update(readBlob(chunkID));
+                }
+                return toHex(digest.digest()).equals(id);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Object types that are stored loose, each in a directory of its own
+     */
+    private static final byte[] LOOSE_TYPES = {
+        PackFile.COMMIT, PackFile.TREE, PackFile.BLOB, PackFile.DELTA, PackFile.CHUNKED
+    };
+
+    private static File looseDir(byte type) {
+        switch (type) {
+            case PackFile.COMMIT:
+                return COMMITS_DIR;
+            case PackFile.TREE:
+                return TREES_DIR;
+            case PackFile.DELTA:
+                return DELTAS_DIR;
+            case PackFile.CHUNKED:
+                return CHUNKED_DIR;
+            default:
+                return BLOBS_DIR;
+        }
+    }
+
+    /**
+     * Receives the stored objects listed by forEachObject().
+     */
+    interface ObjectAction {
+        void accept(byte type, String id, long time, long size);
+    }
+
+    /**
+     * Tells gc() what to do with a stored object.
+     */
+    interface ObjectFilter {
+        boolean test(byte type, String id);
+    }
+
+    /**
+     * Call ACTION on the type, ID, time of writing and stored size of every stored object, loose or packed.
+     * Packed objects were written when their pack was. An object may be stored more than once.
+     */
+    static void forEachObject(ObjectAction action) {
+        for (byte type : LOOSE_TYPES) {
+            for (File file : looseObjects(looseDir(type))) {
+                action.accept(type, file.getName(), file.lastModified(), file.length());
+            }
+        }
+        for (PackFile pack : packs()) {
+            long time = pack.packPath.lastModified();
+            for (int i = 0; i < pack.size; i += 1) {
+                action.accept(pack.type(i), pack.id(i), time, pack.contents(i).remaining());
+            }
+        }
+    }
+
+    /**
+     * Return the IDs of the blobs that the blob with the given ID is rebuilt from,
+     * i.e. the base of its delta or its chunks, if it is stored that way.
+     */
+    static List<String> blobParts(String blobID) {
+        List<String> parts = new ArrayList<>();
+        byte[] chunkList = readChunkList(blobID);
+        if (chunkList != null) {
+            parts.addAll(chunkIDs(chunkList));
+        }
+        byte[] record = readDeltaRecord(blobID);
+        if (record != null) {
+            parts.add(baseOf(record));
+        }
+        return parts;
+    }
+
+    /**
+     * Move the REACHABLE objects, loose or packed, into new packs. Unreachable objects are deleted,
+     * except for those KEPT, which are left loose, or taken out of their packs and written loose
+     * with the time their pack was written. Loose objects and old packs are deleted once the batch
+     * is committed. Returns whether anything changed.
+     */
+    static boolean gc(ObjectFilter reachable, ObjectFilter kept) throws IOException {
+        PACKS_DIR.mkdir();
+        PackFile.Writer writer = new PackFile.Writer();
+        List<File> looseObjects = new ArrayList<>();
+        for (byte type : LOOSE_TYPES) {
+            for (File file : looseObjects(looseDir(type))) {
+                String id = file.getName();
+                if (reachable.test(type, id)) {
+                    if (file.length() <= PackFile.MAX_OBJECT_SIZE) {
+                        writer.add(id, type, file);
+                        looseObjects.add(file);
+                    }
+                } else if (!kept.test(type, id)) {
+                    looseObjects.add(file);
+                }
+            }
+        }
+        List<PackFile> oldPacks = packs();
+        boolean unreachablePacked = false;
+        for (PackFile pack : oldPacks) {
+            for (int i = 0; i < pack.size; i += 1) {
+                String id = pack.id(i);
+                byte type = pack.type(i);
+                if (reachable.test(type, id)) {
+                    writer.add(id, type, pack.contents(i));
+                    continue;
+                }
+                unreachablePacked = true;
+                if (kept.test(type, id)) {
+                    unpack(type, id, pack.contents(i), pack.packPath.lastModified());
+                }
+            }
+        }
+        // Nothing to consolidate.
+        if (looseObjects.isEmpty() && oldPacks.size() <= 1 && !unreachablePacked) {
+            return false;
+        }
+
+        List<File> written = writer.write(PACKS_DIR);
+        for (PackFile pack : oldPacks) {
+            if (!written.contains(pack.indexPath)) {
+                Journal.delete(pack.indexPath);
+                Journal.delete(pack.packPath);
+            }
+        }
+        for (File file : looseObjects) {
+            Journal.delete(file);
+        }
+        packs = null;
+        return true;
+    }
+
+    /**
+     * Write the packed object CONTENTS loose, as written at TIME, unless it is already stored loose.
+     */
+    private static void unpack(byte type, String id, ByteBuffer contents, long time) throws IOException {
+        File dir = looseDir(type);
+        File target = join(dir, id);
+        if (target.isFile()) {
+            return;
+        }
+        dir.mkdir();
+        File temp = Journal.temp(target);
+        writeContents(temp, toBytes(contents));
+        temp.setLastModified(time);
+        Journal.install(temp, target);
+    }
+}
@@ -0,0 +1,455 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * A read-only, memory-mapped view of a packfile and its index.
+ * <p></p>
+ * A pack holds many objects back to back, so a repository needs a few files
+ * instead of one file per commit, tree and blob:
+ * <pre>
+ *     "GPAK" | version | count | (type, length, data) * count | SHA-1 of the preceding bytes
+ * </pre>
+ * The index lists the object IDs in sorted order so that an object can be found by a binary search:
+ * <pre>
+ *     "GIDX" | version | fan-out[256] | IDs[count] | offsets[count] | SHA-1 of the pack
+ * </pre>
+ * fan-out[b] is the number of objects whose ID starts with a byte less than or equal to b,
+ * so the IDs starting with b are in the range [fan-out[b - 1], fan-out[b]).
+ *
+ * @author Sol1tudeRain
+ */
+class PackFile {
+
+    /**
+     * Object types stored in a pack
+     */
+    static final byte COMMIT = 1;
+    static final byte BLOB = 2;
+    static final byte DELTA = 3;
+    static final byte CHUNKED = 4;
+    static final byte TREE = 5;
+
+    /**
+     * Objects larger than this are left loose, so that every pack can be mapped in one buffer.
+     */
+    static final long MAX_OBJECT_SIZE = 1L << 29;
+
+    /**
+     * A new pack is started once the current one grows past this size.
+     */
+    static final long MAX_PACK_SIZE = 1L << 30;
+
+    private static final int PACK_MAGIC = 0x4750414b;
+    private static final int INDEX_MAGIC = 0x47494458;
+    private static final int VERSION = 1;
+    private static final int ID_BYTES = 20;
+    private static final int HEADER_BYTES = 12;
+    private static final int ENTRY_HEADER_BYTES = 9;
+    private static final int FANOUT_OFFSET = 8;
+    private static final int IDS_OFFSET = FANOUT_OFFSET + 256 * 4;
+
+    final File packPath;
+    final File indexPath;
+
+    /**
+     * Number of objects in this pack
+     */
+    final int size;
+
+    private final MappedByteBuffer pack;
+    private final MappedByteBuffer index;
+
+    PackFile(File indexPath) throws IOException {
+        this.indexPath = indexPath;
+        String name = indexPath.getName();
+        this.packPath = new File(indexPath.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        this.index = map(indexPath);
+        this.pack = map(packPath);
+        if (index.getInt(0) != INDEX_MAGIC || pack.getInt(0) != PACK_MAGIC) {
+            throw error("Corrupted pack %s.", name);
+        }
+        this.size = index.getInt(FANOUT_OFFSET + 255 * 4);
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Return the position of ID in the index, or -1 if this pack does not contain it.
+     */
+    int find(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(FANOUT_OFFSET + (first - 1) * 4);
+        int hi = index.getInt(FANOUT_OFFSET + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareID(mid, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareID(int position, byte[] id) {
+        int base = IDS_OFFSET + position * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(index.get(base + i) & 0xff, id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Return the ID of the object at POSITION of the index.
+     */
+    String id(int position) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(IDS_OFFSET + position * ID_BYTES, id);
+        return toHex(id);
+    }
+
+    private int offset(int position) {
+        return (int) index.getLong(IDS_OFFSET + size * ID_BYTES + position * 8);
+    }
+
+    /**
+     * Return the type of the object at POSITION of the index.
+     */
+    byte type(int position) {
+        return pack.get(offset(position));
+    }
+
+    /**
+     * Return the contents of the object at POSITION of the index, without copying it out of the pack.
+     */
+    ByteBuffer contents(int position) {
+        int offset = offset(position);
+        int length = (int) pack.getLong(offset + 1);
+        return pack.slice(offset + ENTRY_HEADER_BYTES, length);
+    }
+
+    /**
+     * Return the packs in directory DIR.
+     */
+    static List<PackFile> loadAll(File dir) {
+        List<PackFile> packs = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".idx"));
+        if (files == null) {
+            return packs;
+        }
+        for (File file : files) {
+            try {
+                packs.add(new PackFile(file));
+            } catch (NoSuchFileException e) {
+                // Replaced by gc since the directory was listed
+            } catch (IOException e) {
+                throw error("Cannot open pack %s.", file.getName());
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Collects objects and writes them out as one or more packs.
+     * Objects come either from loose files or from other packs.
+     */
+    static class Writer {
+
+        private static class Entry {
+            final byte type;
+            final File file;
+            final ByteBuffer buffer;
+
+            Entry(byte type, File file, ByteBuffer buffer) {
+                this.type = type;
+                this.file = file;
+                this.buffer = buffer;
+            }
+
+            long length() {
+                return file != null ? file.length() : buffer.remaining();
+            }
+        }
+
+        private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+        void add(String id, byte type, File file) {
+            entries.putIfAbsent(id, new Entry(type, file, null));
+        }
+
+        void add(String id, byte type, ByteBuffer buffer) {
+            entries.putIfAbsent(id, new Entry(type, null, buffer));
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        /**
+         * Write the collected objects to DIR and return the new packs.
+         */
+        List<File> write(File dir) throws IOException {
+            List<File> written = new ArrayList<>();
+            for (TreeMap<String, Entry> batch : batches()) {
+                written.add(writePack(dir, batch));
+            }
+            return written;
+        }
+
+        /**
+         * Split the collected objects into batches of at most MAX_PACK_SIZE bytes, one for each pack.
+         */
+        private List<TreeMap<String, Entry>> batches() {
+            List<TreeMap<String, Entry>> batches = new ArrayList<>();
+            TreeMap<String, Entry> batch = new TreeMap<>();
+            long batchSize = 0;
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                long length = e.getValue().length() + ENTRY_HEADER_BYTES;
+                if (!batch.isEmpty() && batchSize + length > MAX_PACK_SIZE) {
+                    batches.add(batch);
+                    batch = new TreeMap<>();
+                    batchSize = 0;
+                }
+                batch.put(e.getKey(), e.getValue());
+                batchSize += length;
+            }
+            if (!batch.isEmpty()) {
+                batches.add(batch);
+            }
+            return batches;
+        }
+
+        /**
+         * Write one pack holding OBJECTS, then its index. The index is written last,
+         * so a pack only becomes visible once it is complete and on disk.
+         */
+        private static File writePack(File dir, TreeMap<String, Entry> objects) throws IOException {
+            String name = "pack-" + sha1(String.join("", objects.keySet()));
+            File packPath = join(dir, name + ".pack");
+            File indexPath = join(dir, name + ".idx");
+            // A complete pack of the same objects is already there, and may be in use.
+            if (indexPath.exists()) {
+                return indexPath;
+            }
+
+            long[] offsets = new long[objects.size()];
+            byte[] checksum;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(packPath.toPath())))) {
+                checksum = writeBody(objects, offsets, out);
+            }
+            Journal.sync(packPath);
+            writeIndex(indexPath, objects.keySet(), offsets, checksum);
+            return indexPath;
+        }
+
+        /**
+         * Write the pack holding OBJECTS, which are sorted by ID, to OUT, putting the offset
+         * of each object in OFFSETS. Returns the checksum that ends the pack.
+         */
+        private static byte[] writeBody(TreeMap<String, Entry> objects, long[] offsets,
+                                        DataOutputStream out) throws IOException {
+            DigestOutputStream digestStream = new DigestOutputStream(out, newDigest());
+            DataOutputStream digested = new DataOutputStream(digestStream);
+            digested.writeInt(PACK_MAGIC);
+            digested.writeInt(VERSION);
+            digested.writeInt(objects.size());
+            long offset = HEADER_BYTES;
+            int i = 0;
+            for (Entry entry : objects.values()) {
+                offsets[i] = offset;
+                i += 1;
+                digested.writeByte(entry.type);
+                digested.writeLong(entry.length());
+                if (entry.file != null) {
+                    Files.copy(entry.file.toPath(), digested);
+                } else {
+                    writeBuffer(entry.buffer.duplicate(), digested);
+                }
+                offset += ENTRY_HEADER_BYTES + entry.length();
+            }
+            digested.flush();
+            byte[] checksum = digestStream.getMessageDigest().digest();
+            out.write(checksum);
+            return checksum;
+        }
+
+        /**
+         * Send the collected objects to another gitlet process through OUT, as a stream of packs:
+         * <pre>
+         *     pack count | (object count | IDs[count] | pack) * pack count
+         * </pre>
+         */
+        void send(DataOutputStream out) throws IOException {
+            List<TreeMap<String, Entry>> batches = batches();
+            out.writeInt(batches.size());
+            for (TreeMap<String, Entry> objects : batches) {
+                out.writeInt(objects.size());
+                for (String id : objects.keySet()) {
+                    out.write(fromHex(id));
+                }
+                writeBody(objects, new long[objects.size()], out);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Receive the packs sent by Writer.send() from IN, and store them in DIR with their indexes.
+     * Returns the indexes. Packs are checked against their checksums, and are only
+     * visible once they are complete. The checksum only guards against transport errors:
+     * the caller checks that each object matches its ID.
+     */
+    static List<File> receive(DataInputStream in, File dir) throws IOException {
+        List<File> received = new ArrayList<>();
+        int packCount = in.readInt();
+        for (int p = 0; p < packCount; p += 1) {
+            int count = in.readInt();
+            List<String> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i += 1) {
+                byte[] id = new byte[ID_BYTES];
+                in.readFully(id);
+                ids.add(toHex(id));
+                if (i > 0 && ids.get(i - 1).compareTo(ids.get(i)) >= 0) {
+                    throw error("Corrupted pack received.");
+                }
+            }
+            String name = "pack-" + sha1(String.join("", ids));
+            File packPath = join(dir, name + ".pack");
+            File indexPath = join(dir, name + ".idx");
+            File temp = Journal.temp(packPath);
+            long[] offsets = new long[count];
+            byte[] checksum;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+                MessageDigest digest = newDigest();
+                DataInputStream pack = new DataInputStream(new DigestInputStream(in, digest));
+                if (pack.readInt() != PACK_MAGIC || pack.readInt() != VERSION || pack.readInt() != count) {
+                    throw error("Corrupted pack received.");
+                }
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                long offset = HEADER_BYTES;
+                byte[] buffer = new byte[8192];
+                for (int i = 0; i < count; i += 1) {
+                    offsets[i] = offset;
+                    byte type = pack.readByte();
+                    long length = pack.readLong();
+                    if (type < COMMIT || type > TREE || length < 0 || length > MAX_OBJECT_SIZE) {
+                        throw error("Corrupted pack received.");
+                    }
+                    out.writeByte(type);
+                    out.writeLong(length);
+                    for (long left = length; left > 0; ) {
+                        int n = pack.read(buffer, 0, (int) Math.min(buffer.length, left));
+                        if (n < 0) {
+                            throw new EOFException();
+                        }
+                        out.write(buffer, 0, n);
+                        left -= n;
+                    }
+                    offset += ENTRY_HEADER_BYTES + length;
+                }
+                checksum = digest.digest();
+                byte[] sent = new byte[ID_BYTES];
+                in.readFully(sent);
+                if (!Arrays.equals(checksum, sent)) {
+                    throw error("Corrupted pack received.");
+                }
+                out.write(checksum);
+            } catch (IOException | RuntimeException e) {
+                temp.delete();
+                throw e;
+            }
+            Journal.sync(temp);
+            Journal.install(temp, packPath);
+            writeIndex(indexPath, ids, offsets, checksum);
+            received.add(indexPath);
+        }
+        return received;
+    }
+
+    /**
+     * Write the index of a pack holding the objects with IDS, in sorted order, at OFFSETS,
+     * whose pack ends with CHECKSUM.
+     */
+    private static void writeIndex(File indexPath, Collection<String> ids, long[] offsets,
+                                   byte[] checksum) throws IOException {
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        File temp = Journal.temp(indexPath);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (String id : ids) {
+                out.write(fromHex(id));
+            }
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            out.write(checksum);
+        }
+        Journal.install(temp, indexPath);
+    }
+
+    private static void writeBuffer(ByteBuffer buffer, OutputStream out) throws IOException {
+        byte[] chunk = new byte[8192];
+        while (buffer.hasRemaining()) {
+            int n = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Fetches commits from and pushes commits to remote repositories, which are other gitlet
+ * repositories on the same machine, named by the path of their .gitlet directory.
+ * <p></p>
+ * fetch and push start a gitlet process in the remote repository, which runs upload-pack
+ * or receive-pack, and talk to it through its standard input and output. The remote side first
+ * lists its branches. To fetch, the local side then names the commit it wants, and offers the
+ * commits it has, newest first and a batch at a time, until the remote side has acknowledged
+ * enough of them:
+ * <pre>
+ *     want count | want IDs | (have count | have IDs, answered by ack count | ack IDs) * | 0
+ * </pre>
+ * To push, the local side already knows which of the remote branches it has. Either way, the sending
+ * side works out the commits the other side lacks with {@link CommitGraph#missing}, and sends their IDs,
+ * then those commits with the trees and blobs that changed from their first parents in one stream of
+ * packs (see {@link PackFile.Writer#send}). Both sides run the command under their writer lock,
+ * except for upload-pack, which only reads.
+ *
+ * @author Sol1tudeRain
+ */
+class Remote {
+
+    /**
+     * Commands that are only run by another gitlet process, and talk to it through standard input and output
+     */
+    static final Set<String> SERVER_COMMANDS = Set.of("upload-pack", "receive-pack");
+
+    /**
+     * Number of commits offered at a time while fetching
+     */
+    private static final int HAVE_BATCH = 32;
+
+    /**
+     * Fetching stops offering commits once this many in a row have not been acknowledged
+     */
+    private static final int MAX_UNACKED_HAVES = 256;
+
+    /**
+     * A connection to a gitlet process running in a remote repository.
+     */
+    private static class Connection implements AutoCloseable {
+        final Process process;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(File remoteDir, String command) {
+            String java = join(new File(System.getProperty("java.home")), "bin", "java").getPath();
+            List<String> classPath = new ArrayList<>();
+            // The remote process runs in another directory, so relative entries are resolved here.
+            for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                classPath.add(new File(entry).isAbsolute() ? entry : join(CWD, entry).getPath());
+            }
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", String.join(File.pathSeparator, classPath),
+                    Main.class.getName(), command);
+            builder.directory(remoteDir.getParentFile());
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            try {
+                process = builder.start();
+            } catch (IOException e) {
+                throw error("Cannot start gitlet in the remote repository.");
+            }
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+                in.close();
+                process.waitFor();
+            } catch (IOException | InterruptedException e) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Return the .gitlet directory of the remote called REMOTENAME.
+     */
+    private static File remoteDir(String remoteName) {
+        String path = getState().remotes.get(remoteName);
+        if (path == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        File dir = new File(path);
+        if (!dir.isAbsolute()) {
+            dir = join(CWD, path);
+        }
+        if (!join(dir, STATE_PATH.getName()).isFile()) {
+            throw error("Remote directory not found.");
+        }
+        return dir;
+    }
+
+    static void addRemote(String remoteName, String path) {
+        State gitletState = getState();
+        if (gitletState.remotes.containsKey(remoteName)) {
+            throw error("A remote with that name already exists.");
+        }
+        gitletState.remotes.put(remoteName, path.replace('/', File.separatorChar));
+        gitletState.save();
+    }
+
+    static void rmRemote(String remoteName) {
+        State gitletState = getState();
+        if (gitletState.remotes.remove(remoteName) == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        gitletState.save();
+    }
+
+    /**
+     * Copy the branch BRANCHNAME of the remote called REMOTENAME, with the commits and files
+     * this repository lacks, into the branch REMOTENAME/BRANCHNAME.
+     */
+    static void fetch(String remoteName, String branchName) {
+        State gitletState = getState();
+        File dir = remoteDir(remoteName);
+        String head;
+        try (Connection remote = new Connection(dir, "upload-pack")) {
+            Map<String, String> branches = readBranches(remote.in);
+            head = branches.get(branchName);
+            if (head == null) {
+                remote.out.writeInt(0);
+                throw error("That remote does not have that branch.");
+            }
+            if (CommitGraph.get().ensure(head) >= 0) {
+                remote.out.writeInt(0);
+            } else {
+                remote.out.writeInt(1);
+                remote.out.writeUTF(head);
+                negotiate(remote, gitletState.branches.values());
+                receive(remote.in);
+            }
+        } catch (EOFException e) {
+            throw error("The remote repository hung up unexpectedly.");
+        } catch (IOException e) {
+            throw error("Cannot talk to the remote repository: %s", e.getMessage());
+        }
+        gitletState.branches.put(remoteName + "/" + branchName, head);
+        gitletState.save();
+    }
+
+    /**
+     * Fetch the branch BRANCHNAME of the remote called REMOTENAME, then merge it into the current branch.
+     */
+    static void pull(String remoteName, String branchName) throws CloneNotSupportedException {
+        fetch(remoteName, branchName);
+        merge(remoteName + "/" + branchName);
+    }
+
+    /**
+     * Offer the commits reachable from HEADS to REMOTE, newest first, until every commit left
+     * to offer is an ancestor of one it has acknowledged, or it acknowledges none of many in a row.
+     * An acknowledged commit's ancestors are not offered.
+     */
+    private static void negotiate(Connection remote, Iterable<String> heads) throws IOException {
+        CommitGraph graph = CommitGraph.get();
+        // Commits seen so far, and whether they are ancestors of acknowledged ones
+        HashMap<Integer, Boolean> common = new HashMap<>();
+        Set<Integer> offered = new HashSet<>();
+        PriorityQueue<Integer> fringe = new PriorityQueue<>(
+                (x, y) -> Integer.compare(graph.generation(y), graph.generation(x)));
+        int pending = 0;
+        for (String head : heads) {
+            int position = graph.ensure(head);
+            if (position >= 0 && common.putIfAbsent(position, false) == null) {
+                fringe.add(position);
+                pending += 1;
+            }
+        }
+        int unacked = 0;
+        while (pending > 0 && unacked < MAX_UNACKED_HAVES) {
+            List<Integer> batch = new ArrayList<>();
+            while (batch.size() < HAVE_BATCH && pending > 0) {
+                int position = fringe.poll();
+                offered.add(position);
+                boolean isCommon = common.get(position);
+                if (!isCommon) {
+                    pending -= 1;
+                    batch.add(position);
+                }
+                for (int which = 0; which < 2; which += 1) {
+                    int parent = graph.parent(position, which);
+                    if (parent < 0) {
+                        continue;
+                    }
+                    Boolean old = common.get(parent);
+                    if (old == null) {
+                        common.put(parent, isCommon);
+                        fringe.add(parent);
+                        if (!isCommon) {
+                            pending += 1;
+                        }
+                    } else if (!old && isCommon) {
+                        common.put(parent, true);
+                        pending -= 1;
+                    }
+                }
+            }
+            remote.out.writeInt(batch.size());
+            for (int position : batch) {
+                remote.out.writeUTF(graph.id(position));
+            }
+            remote.out.flush();
+            int ackCount = remote.in.readInt();
+            unacked += batch.size();
+            for (int i = 0; i < ackCount; i += 1) {
+                int position = graph.position(remote.in.readUTF());
+                if (position < 0) {
+                    continue;
+                }
+                unacked = 0;
+                // Parents of an acknowledged commit are not offered, nor are their ancestors.
+                for (int which = 0; which < 2; which += 1) {
+                    int parent = graph.parent(position, which);
+                    if (parent < 0) {
+                        continue;
+                    }
+                    Boolean old = common.put(parent, true);
+                    if (old == null) {
+                        fringe.add(parent);
+                    } else if (!old && !offered.contains(parent)) {
+                        pending -= 1;
+                    }
+                }
+            }
+        }
+        remote.out.writeInt(0);
+        remote.out.flush();
+    }
+
+    /**
+     * Update the branch BRANCHNAME of the remote called REMOTENAME to the head of the current branch,
+     * sending the commits and files the remote lacks. The remote branch must be an ancestor of the head.
+     */
+    static void push(String remoteName, String branchName) {
+        State gitletState = getState();
+        File dir = remoteDir(remoteName);
+        try (Connection remote = new Connection(dir, "receive-pack")) {
+            Map<String, String> branches = readBranches(remote.in);
+            CommitGraph graph = CommitGraph.get();
+            String old = branches.get(branchName);
+            if (old != null && (graph.ensure(old) < 0 || !old.equals(graph.mergeBase(old, gitletState.HEAD)))) {
+                remote.out.writeUTF("");
+                throw error("Please pull down remote changes before pushing.");
+            }
+            if (gitletState.HEAD.equals(old)) {
+                remote.out.writeUTF("");
+                return;
+            }
+            remote.out.writeUTF(branchName);
+            remote.out.writeUTF(old == null ? "" : old);
+            remote.out.writeUTF(gitletState.HEAD);
+            send(remote.out, graph.missing(List.of(gitletState.HEAD), branches.values()));
+            String reply = remote.in.readUTF();
+            if (!reply.isEmpty()) {
+                throw error(reply);
+            }
+        } catch (EOFException e) {
+            throw error("The remote repository hung up unexpectedly.");
+        } catch (IOException e) {
+            throw error("Cannot talk to the remote repository: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Send the commits the fetching repository asks for, run in the remote repository by fetch.
+     */
+    static void uploadPack() throws IOException {
+        State gitletState = getState();
+        DataOutputStream out = serverOutput();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        writeBranches(out, gitletState.branches);
+        int wantCount = in.readInt();
+        if (wantCount == 0) {
+            return;
+        }
+        List<String> wants = new ArrayList<>();
+        for (int i = 0; i < wantCount; i += 1) {
+            wants.add(in.readUTF());
+        }
+        CommitGraph graph = CommitGraph.get();
+        List<String> haves = new ArrayList<>();
+        int haveCount;
+        while ((haveCount = in.readInt()) > 0) {
+            List<String> acks = new ArrayList<>();
+            for (int i = 0; i < haveCount; i += 1) {
+                String commitID = in.readUTF();
+                if (graph.ensure(commitID) >= 0) {
+                    acks.add(commitID);
+                }
+            }
+            haves.addAll(acks);
+            out.writeInt(acks.size());
+            for (String commitID : acks) {
+                out.writeUTF(commitID);
+            }
+            out.flush();
+        }
+        send(out, graph.missing(wants, haves));
+    }
+
+    /**
+     * Take the commits a pushing repository sends, run in the remote repository by push.
+     * The pushed branch is moved to the new commit, but the working directory is left alone.
+     */
+    static void receivePack() throws IOException {
+        State gitletState = getState();
+        DataOutputStream out = serverOutput();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        writeBranches(out, gitletState.branches);
+        String branchName = in.readUTF();
+        if (branchName.isEmpty()) {
+            return;
+        }
+        String old = in.readUTF();
+        String head = in.readUTF();
+        receive(in);
+        // The lock is held since the branches were listed, so this only fails if the pusher is confused.
+        if (!old.equals(gitletState.branches.getOrDefault(branchName, "")) || getCommit(head) == null) {
+            out.writeUTF("Please pull down remote changes before pushing.");
+            out.flush();
+            return;
+        }
+        gitletState.branches.put(branchName, head);
+        if (branchName.equals(gitletState.currentBranch)) {
+            gitletState.HEAD = head;
+        }
+        gitletState.save();
+        Journal.afterCommit(() -> {
+            try {
+                out.writeUTF("");
+                out.flush();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Return the stream that a server command talks through. Everything else the command prints
+     * would corrupt the stream, so it goes to standard error instead.
+     */
+    private static DataOutputStream serverOutput() {
+        System.setOut(System.err);
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    }
+
+    private static void writeBranches(DataOutputStream out, Map<String, String> branches) throws IOException {
+        out.writeInt(branches.size());
+        for (Map.Entry<String, String> branch : new TreeMap<>(branches).entrySet()) {
+            out.writeUTF(branch.getKey());
+            out.writeUTF(branch.getValue());
+        }
+        out.flush();
+    }
+
+    private static Map<String, String> readBranches(DataInputStream in) throws IOException {
+        Map<String, String> branches = new HashMap<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i += 1) {
+            branches.put(in.readUTF(), in.readUTF());
+        }
+        return branches;
+    }
+
+    /**
+     * Send the IDs of COMMITS, which are in parents-first order, then the commits
+     * with the trees and blobs that changed from their first parents.
+     */
+    private static void send(DataOutputStream out, List<String> commits) throws IOException {
+        PackFile.Writer writer = new PackFile.Writer();
+        Set<String> blobs = new HashSet<>();
+        Set<String> bases = new HashSet<>();
+        for (String commitID : commits) {
+            Commit commit = getCommit(commitID);
+            Commit parent = getCommit(commit.parents.get(0));
+            ObjectStore.packCommit(writer, commitID);
+            Tree.added(parent == null ? null : parent.trackedFiles, commit.trackedFiles,
+                    treeID -> ObjectStore.packTree(writer, treeID),
+                    (fileName, baseID, fileID) -> {
+                        blobs.add(fileID);
+                        if (baseID != null) {
+                            bases.add(baseID);
+                        }
+                    });
+        }
+        bases.addAll(blobs);
+        for (String blobID : blobs) {
+            ObjectStore.packBlob(writer, blobID, bases);
+        }
+        out.writeInt(commits.size());
+        for (String commitID : commits) {
+            out.writeUTF(commitID);
+        }
+        writer.send(out);
+    }
+
+    /**
+     * Take the commits sent by send(), and add them to the commit graph and the message index.
+     */
+    private static void receive(DataInputStream in) throws IOException {
+        List<String> commits = new ArrayList<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i += 1) {
+            commits.add(in.readUTF());
+        }
+        ObjectStore.receive(in);
+        CommitGraph graph = CommitGraph.get();
+        for (String commitID : commits) {
+            if (graph.position(commitID) < 0) {
+                Commit commit = getCommit(commitID);
+                if (commit == null) {
+                    throw error("Corrupted pack received.");
+                }
+                graph.add(commit);
+                MessageIndex.add(commit);
+            }
+        }
+    }
+}
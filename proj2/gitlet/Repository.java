@@ -42,16 +42,72 @@ public class Repository {
      */
     public static final File COMMITS_DIR = join(GITLET_DIR, "commits");
 
+    /**
+     * Where to store the trees of tracked directories
+     */
+    public static final File TREES_DIR = join(GITLET_DIR, "trees");
+
     /**
      * Where to store blobs
      */
     public static final File BLOBS_DIR = join(GITLET_DIR, "blobs");
 
+    /**
+     * Where to store blobs that are encoded as deltas against older blobs
+     */
+    public static final File DELTAS_DIR = join(GITLET_DIR, "deltas");
+
+    /**
+     * Where to store the chunk lists of blobs that are split into chunks
+     */
+    public static final File CHUNKED_DIR = join(GITLET_DIR, "chunked");
+
+    /**
+     * Where to store packs of commits, trees and blobs
+     */
+    public static final File PACKS_DIR = join(GITLET_DIR, "packs");
+
     /**
      * Where to store gitlet state object
      */
     public static final File STATE_PATH = join(GITLET_DIR, "state");
 
+    /**
+     * Where to store the commit graph, and commits added to it since it was last rewritten
+     */
+    public static final File GRAPH_PATH = join(GITLET_DIR, "commit-graph");
+    public static final File GRAPH_TAIL_PATH = join(GITLET_DIR, "commit-graph-tail");
+
+    /**
+     * Where to store the stat data of working files
+     */
+    public static final File INDEX_PATH = join(GITLET_DIR, "index");
+
+    /**
+     * Where to store the changes of a command while they are being made
+     */
+    public static final File JOURNAL_PATH = join(GITLET_DIR, "journal");
+
+    /**
+     * The file that processes writing to the repository lock
+     */
+    public static final File LOCK_PATH = join(GITLET_DIR, "lock");
+
+    /**
+     * Where to store the buckets of the commit message index
+     */
+    public static final File MESSAGES_DIR = join(GITLET_DIR, "messages");
+
+    /**
+     * Where to store the results of blame
+     */
+    public static final File BLAME_DIR = join(GITLET_DIR, "blame");
+
+    /**
+     * The port a running gitlet daemon listens on, and the token it expects from clients
+     */
+    public static final File DAEMON_PATH = join(GITLET_DIR, "daemon");
+
 
     /**
      * A main method for test
@@ -63,15 +119,17 @@ public class Repository {
     public static void init() {
         // If there is already a Gitlet version-control system in the current directory, abort. */
         if (GITLET_DIR.exists()) {
-            System.out.println("A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            throw error("A Gitlet version-control system already exists in the current directory.");
         }
 
         // Make directories.
         GITLET_DIR.mkdir();
         STAGING_DIR.mkdir();
         COMMITS_DIR.mkdir();
+        TREES_DIR.mkdir();
         BLOBS_DIR.mkdir();
+        DELTAS_DIR.mkdir();
+        PACKS_DIR.mkdir();
 
         // First commit
         Commit initCommit = new Commit("initial commit");
@@ -80,63 +138,76 @@ public class Repository {
         SimpleDateFormat formatter = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy ZZZZ", Locale.ENGLISH);
         Date date = new Date(0);
         initCommit.date = formatter.format(date);
-        initCommit.UID = sha1(serialize(initCommit));// Every commit has a unique ID, which is its SHA-1 value
         initCommit.parents.add(null);
+        initCommit.UID = sha1(initCommit.encode());// Every commit has a unique ID, which is its SHA-1 value
         initCommit.save();
 
         // Create and initialize gitlet state
         State gitletState = new State();
-        gitletState.shortIDs.put(initCommit.UID.substring(0, 8), initCommit.UID);
         gitletState.HEAD = initCommit.UID; // Set the current commit to init commit.
         gitletState.branches.put("master", initCommit.UID);// Add master to branches map, which maps from name to ID.
         gitletState.save();
     }
 
-    public static void add(String fileName) throws IOException {
-        // If the file doesn't exist, abort.
-        File fileToAdd = join(CWD, fileName);
-        if (!fileToAdd.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        }
-
+    /**
+     * Stages the files denoted by PATHS. A directory stands for all files under it that the sparse
+     * checkout includes, and a file it leaves out cannot be staged.
+     * Files are hashed and copied in parallel, and nothing is staged unless all of them can be.
+     */
+    public static void add(String... paths) throws IOException {
         State gitletState = getState();
+        SparseCheckout sparse = SparseCheckout.of(gitletState);
+        // If a file doesn't exist, abort.
+        Set<String> names = new LinkedHashSet<>();
+        for (String path : paths) {
+            File fileToAdd = join(CWD, path);
+            if (!fileToAdd.exists()) {
+                throw error("File does not exist.");
+            }
+            for (String fileName : WorkingTree.expand(path)) {
+                if (sparse.includes(fileName)) {
+                    names.add(fileName);
+                } else if (!fileToAdd.isDirectory()) {
+                    throw error("File is outside the sparse checkout.");
+                }
+            }
+        }
+        List<String> fileNames = new ArrayList<>(names);
 
-        // The file will no longer be staged for removal.
-        gitletState.stagedFilesForRemoval.remove(fileName);
-
-        /*
-         * If the current working version of the file is identical to the version in the current commit,
-         * do not stage it to be added, and remove it from the staging area
-         * if it is already there (as can happen when a file is changed, added,
-         * and then changed back to its original version).
-         */
         Commit currentCommit = getCommit(gitletState.HEAD);
-        String trackedFileID = currentCommit.trackedFiles.get(fileName); //Get the ID of the tracked file.
-        String fileToAddID = sha1(readContentsAsString(fileToAdd)); // Produce ID of the file to add.
+        StatIndex index = StatIndex.load();
+        Map<String, String> fileIDs = WorkingTree.stage(fileNames, index, currentCommit.trackedFiles);
+        index.save();
 
-        /* Check if the current working version of the file
-           is identical to the version in the current commit if there is one. */
-        if (fileToAddID.equals(trackedFileID)) {
-            gitletState.stagedFilesForAddition.remove(fileName);
-            File stagedFile = join(STAGING_DIR, fileToAddID);
-            safeDelete(stagedFile);
-            gitletState.save();
-            System.exit(0);
+        for (String fileName : fileNames) {
+            // The file will no longer be staged for removal.
+            gitletState.stagedFilesForRemoval.remove(fileName);
+
+            String trackedFileID = currentCommit.trackedFiles.get(fileName); //Get the ID of the tracked file.
+            String fileToAddID = fileIDs.get(fileName);
+
+            /*
+             * If the current working version of the file is identical to the version in the current commit,
+             * do not stage it to be added, and remove it from the staging area
+             * if it is already there (as can happen when a file is changed, added,
+             * and then changed back to its original version).
+             */
+            if (fileToAddID.equals(trackedFileID)) {
+                gitletState.stagedFilesForAddition.remove(fileName);
+                File stagedFile = join(STAGING_DIR, fileToAddID);
+                Journal.delete(stagedFile);
+            } else {
+                // Staging an already-staged file overwrites the previous entry in the staging area with the new contents.
+                gitletState.stagedFilesForAddition.put(fileName, fileToAddID);
+            }
         }
-
-        File des = join(STAGING_DIR, fileToAddID);
-        // Staging an already-staged file overwrites the previous entry in the staging area with the new contents.
-        Files.copy(fileToAdd.toPath(), des.toPath(), REPLACE_EXISTING);
-        gitletState.stagedFilesForAddition.put(fileName, fileToAddID);
         gitletState.save();
     }
 
     public static void commit(String message) throws CloneNotSupportedException {
         // There must be a message for every commit.
         if (message == null || message.equals("")) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw error("Please enter a commit message.");
         }
 
         State gitletState = getState();
@@ -162,14 +233,12 @@ public class Repository {
         gitletState.stagedFilesForAddition.forEach((fileName, fileID) -> {
             newCommit.trackedFiles.put(fileName, fileID);
             File stagedFileToAdd = join(STAGING_DIR, fileID);
-            File des = join(BLOBS_DIR, fileID);
-            // If there is already a file with the same ID, there's need to overwrite because same ID implies same contents.
-            if (!des.exists()) {
-                try {
-                    Files.copy(stagedFileToAdd.toPath(), des.toPath());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+            // The version in the current commit, if any, is the base of a delta for the new version.
+            String baseID = currentCommit.trackedFiles.get(fileName);
+            try {
+                ObjectStore.writeBlob(fileID, stagedFileToAdd, baseID);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
         });
 
@@ -179,7 +248,7 @@ public class Repository {
             newCommit.trackedFiles.remove(removedFileName);
         }
 
-        newCommit.UID = sha1(serialize(newCommit));
+        newCommit.UID = sha1(newCommit.encode());
         newCommit.save();
 
         //The staging area is cleared after a commit.
@@ -187,7 +256,6 @@ public class Repository {
         gitletState.stagedFilesForAddition.clear();
         gitletState.stagedFilesForRemoval.clear();
 
-        gitletState.shortIDs.put(newCommit.UID.substring(0, 8), newCommit.UID);
         gitletState.HEAD = newCommit.UID;
         gitletState.branches.put(gitletState.currentBranch, gitletState.HEAD);
         gitletState.save();
@@ -201,15 +269,14 @@ public class Repository {
 
         // If the file is neither staged nor tracked by the head commit, abort.
         if (!staged && !tracked) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
 
         // Unstage the file if it is currently staged for addition.
         if (staged) {
             String fileID = gitletState.stagedFilesForAddition.get(fileName);
             File fileToUnstage = join(STAGING_DIR, fileID);
-            fileToUnstage.delete();
+            Journal.delete(fileToUnstage);
             gitletState.stagedFilesForAddition.remove(fileName);
             gitletState.save();
         }
@@ -217,16 +284,21 @@ public class Repository {
            and remove the file from the working directory if the user has not already done so. */
         if (tracked) {
             gitletState.stagedFilesForRemoval.add(fileName);
-            File fileToRemove = join(CWD, fileName);
-            safeDelete(fileToRemove);
+            WorkingTree.delete(fileName);
+            StatIndex index = StatIndex.load();
+            index.remove(fileName);
+            index.save();
             gitletState.save();
         }
     }
 
     public static void log() {
         State gitletState = getState();
-        Commit commit = getCommit(gitletState.HEAD);
-        while (true) {
+        // Parents are looked up in the commit graph, so only the commits that are printed are read.
+        CommitGraph graph = CommitGraph.get();
+        int position = graph.ensure(gitletState.HEAD);
+        while (position >= 0) {
+            Commit commit = getCommit(graph.id(position));
             if (commit.parents.size() == 2) {
                 System.out.println("===\n" +
                         "commit " + commit.UID + "\n" +
@@ -239,19 +311,19 @@ public class Repository {
                         "Date: " + commit.date + "\n" +
                         commit.message + "\n");
             }
-
-            if (commit.parents.get(0) == null) {
-                break;
-            } else {
-                commit = getCommit(commit.parents.get(0));
-            }
+            position = graph.parent(position, 0);
         }
     }
 
-    public static void global_log() {
-        File filesList[] = COMMITS_DIR.listFiles();
-        for (File file : filesList) {
-            Commit commit = readObject(file, Commit.class);
+    /**
+     * Print the commits of this repository one at a time, skipping the first SKIP of them
+     * and stopping after MAXCOUNT, or after all of them if MAXCOUNT is negative.
+     */
+    public static void global_log(int skip, int maxCount) {
+        CommitGraph graph = CommitGraph.get();
+        int end = maxCount < 0 ? graph.size() : (int) Math.min(graph.size(), (long) skip + maxCount);
+        for (int position = skip; position < end; position += 1) {
+            Commit commit = getCommit(graph.id(position));
             System.out.println("===\n" +
                     "commit " + commit.UID + "\n" +
                     "Date: " + commit.date + "\n" +
@@ -259,17 +331,60 @@ public class Repository {
         }
     }
 
-    public static void find(String message) {
-        File filesList[] = COMMITS_DIR.listFiles();
-        boolean found = false;
-        for (File file : filesList) {
-            Commit commit = readObject(file, Commit.class);
-            if (commit.message.equals(message)) {
-                found = true;
-                System.out.println(commit.UID);
+    /**
+     * Print the differences between the commits FROM and TO, as a diffstat if STAT is true and as a
+     * unified diff otherwise. FROM defaults to the head commit, and TO to the working files:
+     * the files tracked by FROM or staged for addition, as they are in the working directory.
+     * Unchanged working files are recognized through the index, without reading them.
+     * Tracked files that the sparse checkout leaves out are not compared with the working files.
+     */
+    public static void diff(boolean stat, String from, String to) {
+        State gitletState = getState();
+        Commit fromCommit = getCommit(from == null ? gitletState.HEAD : from);
+        Commit toCommit = to == null ? null : getCommit(to);
+        if (fromCommit == null || (to != null && toCommit == null)) {
+            throw error("No commit with that id exists.");
+        }
+
+        DiffWriter writer = new DiffWriter(stat);
+        TreeSet<String> fileNames;
+        if (toCommit != null) {
+            fileNames = new TreeSet<>(fromCommit.trackedFiles.keySet());
+            fileNames.addAll(toCommit.trackedFiles.keySet());
+            for (String fileName : fileNames) {
+                String fromID = fromCommit.trackedFiles.get(fileName);
+                String toID = toCommit.trackedFiles.get(fileName);
+                if (!Objects.equals(fromID, toID)) {
+                    writer.file(fileName, fromID == null ? null : ObjectStore.readBlob(fromID),
+                            toID == null ? null : ObjectStore.readBlob(toID));
+                }
+            }
+        } else {
+            fileNames = new TreeSet<>(SparseCheckout.of(gitletState).select(fromCommit.trackedFiles).keySet());
+            fileNames.addAll(gitletState.stagedFilesForAddition.keySet());
+            StatIndex index = StatIndex.load();
+            for (String fileName : fileNames) {
+                String fromID = fromCommit.trackedFiles.get(fileName);
+                String workingID = TreeWatcher.hash(index, fileName);
+                if (!Objects.equals(fromID, workingID)) {
+                    writer.file(fileName, fromID == null ? null : ObjectStore.readBlob(fromID),
+                            workingID == null ? null : readContents(join(CWD, fileName)));
+                }
+            }
+            // Like status, diff only updates the index when no one else is writing.
+            if (WriterLock.tryAcquire()) {
+                index.save();
             }
         }
-        if (!found) {
+        writer.finish();
+    }
+
+    public static void find(String message) {
+        List<String> commitIDs = MessageIndex.find(message);
+        for (String commitID : commitIDs) {
+            System.out.println(commitID);
+        }
+        if (commitIDs.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -279,9 +394,9 @@ public class Repository {
 
         System.out.println("=== Branches ===");
         System.out.println("*" + gitletState.currentBranch);
-        gitletState.branches.remove(gitletState.currentBranch);
-
+        // The state may be cached for later commands, so the current branch is left out of a copy.
         TreeMap<String, String> sortedMap = new TreeMap<>(gitletState.branches);
+        sortedMap.remove(gitletState.currentBranch);
 
         for (String branch : sortedMap.keySet()) {
             System.out.println(branch);
@@ -299,9 +414,51 @@ public class Repository {
             System.out.println(fileName);
         }
 
-        System.out.println("\n=== Modifications Not Staged For Commit ===");
-        System.out.println("\n=== Untracked Files ===\n");
+        /* Working files are compared with the staged and tracked versions through the index,
+           so only files whose stat data changed are read. Tracked files that the sparse checkout
+           leaves out are not in the working directory, and are skipped along with their directories. */
+        Commit currentCommit = getCommit(gitletState.HEAD);
+        StatIndex index = StatIndex.load();
+        List<String> workingFiles = TreeWatcher.files();
+        TreeMap<String, String> modifications = new TreeMap<>();
+        currentCommit.trackedFiles.forEach(SparseCheckout.of(gitletState), (fileName, fileID) -> {
+            if (gitletState.stagedFilesForAddition.containsKey(fileName)) {
+                return;
+            }
+            String workingID = TreeWatcher.hash(index, fileName);
+            if (workingID == null) {
+                if (!gitletState.stagedFilesForRemoval.contains(fileName)) {
+                    modifications.put(fileName, "deleted");
+                }
+            } else if (!workingID.equals(fileID)) {
+                modifications.put(fileName, "modified");
+            }
+        });
+        gitletState.stagedFilesForAddition.forEach((fileName, fileID) -> {
+            String workingID = TreeWatcher.hash(index, fileName);
+            if (workingID == null) {
+                modifications.put(fileName, "deleted");
+            } else if (!workingID.equals(fileID)) {
+                modifications.put(fileName, "modified");
+            }
+        });
+        // status does not wait for writers, so it only updates the index when no one else is writing.
+        if (WriterLock.tryAcquire()) {
+            index.save();
+        }
 
+        System.out.println("\n=== Modifications Not Staged For Commit ===");
+        modifications.forEach((fileName, change) -> System.out.println(fileName + " (" + change + ")"));
+
+        System.out.println("\n=== Untracked Files ===");
+        for (String fileName : workingFiles) {
+            boolean staged = gitletState.stagedFilesForAddition.containsKey(fileName);
+            boolean tracked = currentCommit.trackedFiles.containsKey(fileName);
+            if ((!staged && !tracked) || gitletState.stagedFilesForRemoval.contains(fileName)) {
+                System.out.println(fileName);
+            }
+        }
+        System.out.println();
     }
 
     /**
@@ -316,18 +473,17 @@ public class Repository {
         String blobID = currentCommit.trackedFiles.get(fileName);
         //If the file does not exist in the current commit, abort.
         if (blobID == null) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
 
-        File blob = join(BLOBS_DIR, blobID);
-        File des = join(CWD, fileName);
-        Files.copy(blob.toPath(), des.toPath(), REPLACE_EXISTING);
+        StatIndex index = StatIndex.load();
+        WorkingTree.checkout(Map.of(fileName, blobID), index);
+        Journal.afterCommit(index::save);
 
         // Unstage the file
         gitletState.stagedFilesForAddition.remove(fileName);
         File fileToUnstage = join(STAGING_DIR, blobID);
-        safeDelete(fileToUnstage);
+        Journal.delete(fileToUnstage);
         gitletState.save();
     }
 
@@ -340,25 +496,23 @@ public class Repository {
         Commit commit = getCommit(commitID);
         // If no commit with the given id exists
         if (commit == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw error("No commit with that id exists.");
         }
 
         String blobID = commit.trackedFiles.get(fileName);
         //If the file does not exist in the denoted commit, abort.
         if (blobID == null) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
 
-        File blob = join(BLOBS_DIR, blobID);
-        File des = join(CWD, fileName);
-        Files.copy(blob.toPath(), des.toPath(), REPLACE_EXISTING);
+        StatIndex index = StatIndex.load();
+        WorkingTree.checkout(Map.of(fileName, blobID), index);
+        Journal.afterCommit(index::save);
 
         State gitletState = getState();
         gitletState.stagedFilesForAddition.remove(fileName);
         File fileToUnstage = join(STAGING_DIR, blobID);
-        safeDelete(fileToUnstage);
+        Journal.delete(fileToUnstage);
         gitletState.save();
     }
 
@@ -374,45 +528,42 @@ public class Repository {
     public static void checkoutBranch(String branchName) {
         State gitletState = getState();
         if (gitletState.currentBranch.equals(branchName)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         }
         String commitID = gitletState.branches.get(branchName);
         if (commitID == null) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         }
 
         Commit currentCommit = getCommit(gitletState.HEAD);
         Commit commit = getCommit(commitID);
-        List<String> fileNames = plainFilenamesIn(CWD);
+        SparseCheckout sparse = SparseCheckout.of(gitletState);
+        List<String> fileNames = TreeWatcher.files();
         // If a working file is untracked in the current branch and would be overwritten by the checkout, abort.
         for (String fileName : fileNames) {
-            if (!currentCommit.trackedFiles.containsKey(fileName) && commit.trackedFiles.containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
+            if (sparse.includes(fileName) && !currentCommit.trackedFiles.containsKey(fileName)
+                    && commit.trackedFiles.containsKey(fileName)) {
+                throw error("There is an untracked file in the way; delete it, or add and commit it first.");
             }
         }
 
-        // Any files that are tracked in the current branch but are not present in the checked-out branch are deleted.
-        for (String fileName : currentCommit.trackedFiles.keySet()) {
-            if (!commit.trackedFiles.containsKey(fileName)) {
-                File fileToDelete = join(CWD, fileName);
-                safeDelete(fileToDelete);
-            }
-        }
-        /* Takes all files in the commit at the head of the given branch,
+        /* Takes all files in the commit at the head of the given branch that the sparse checkout includes,
            and puts them in the working directory, overwriting the versions of the files
            that are already there if they exist. */
-        commit.trackedFiles.forEach((fileName, fileID) -> {
-            File src = join(BLOBS_DIR, fileID);
-            File des = join(CWD, fileName);
-            try {
-                Files.copy(src.toPath(), des.toPath(), REPLACE_EXISTING);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        StatIndex index = StatIndex.load();
+        try {
+            WorkingTree.checkout(sparse.select(commit.trackedFiles), index);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // Any files that are tracked in the current branch but are not present in the checked-out branch are deleted.
+        Tree.diff(currentCommit.trackedFiles, commit.trackedFiles, (fileName, currentID, checkedOutID) -> {
+            if (checkedOutID == null) {
+                WorkingTree.delete(fileName);
+                index.remove(fileName);
             }
         });
+        Journal.afterCommit(index::save);
 
         gitletState.currentBranch = branchName;
         gitletState.HEAD = gitletState.branches.get(branchName);
@@ -424,12 +575,59 @@ public class Repository {
         gitletState.save();
     }
 
+    /**
+     * Deletes the objects that no branch can reach once they are older than the grace period, or right away
+     * if PRUNENOW is true, and moves the others into packs, so that the repository is made of a few
+     * large files instead of one file per object (see {@link GarbageCollector}).
+     */
+    public static void gc(boolean pruneNow) throws IOException {
+        long cutoff = pruneNow ? Long.MAX_VALUE : System.currentTimeMillis() - GarbageCollector.GRACE_MILLIS;
+        GarbageCollector.run(cutoff);
+    }
+
+    /**
+     * Print the value of the config option NAME, or set it to VALUE if VALUE is not null.
+     * Options are
+     * <pre>
+     *     chunking       true to split files of 1 MB or more into content-defined chunks (default false;
+     *                    files over 16 MB are always split)
+     *     compression    codec for new objects: none, deflate or lz4 (default none)
+     *     stats          true to print the counters of the commit cache after each command (default false)
+     * </pre>
+     */
+    public static void config(String name, String value) {
+        State gitletState = getState();
+        List<String> values;
+        switch (name) {
+            case "chunking":
+                values = List.of("false", "true");
+                break;
+            case "compression":
+                values = Compression.NAMES;
+                break;
+            case "stats":
+                values = List.of("false", "true");
+                break;
+            default:
+                throw error("No config option with that name exists.");
+        }
+        // The first value is the default.
+        if (value == null) {
+            System.out.println(gitletState.config.getOrDefault(name, values.get(0)));
+            return;
+        }
+        if (!values.contains(value)) {
+            throw error("Invalid value for %s.", name);
+        }
+        gitletState.config.put(name, value);
+        gitletState.save();
+    }
+
     public static void branch(String branchName) {
         State gitletState = getState();
         // If a branch with the given name already exists, abort.
         if (gitletState.branches.containsKey(branchName)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         }
         gitletState.branches.put(branchName, gitletState.HEAD);
         gitletState.save();
@@ -439,8 +637,7 @@ public class Repository {
         State gitletState = getState();
         // If a branch with the given name does not exist, abort.
         if (!gitletState.branches.containsKey(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
         // If you try to remove the branch you’re currently on, abort.
         if (gitletState.currentBranch.equals(branchName)) {
@@ -455,39 +652,37 @@ public class Repository {
         Commit commit = getCommit(commitID);
         // If no commit with the given id exists, abort.
         if (commit == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw error("No commit with that id exists.");
         }
         State gitletState = getState();
         Commit currentCommit = getCommit(gitletState.HEAD);
-        List<String> fileNames = plainFilenamesIn(CWD);
+        SparseCheckout sparse = SparseCheckout.of(gitletState);
+        List<String> fileNames = TreeWatcher.files();
         // If a working file is untracked in the current branch and would be overwritten by the checkout, abort.
         for (String fileName : fileNames) {
-            if (!currentCommit.trackedFiles.containsKey(fileName) && commit.trackedFiles.containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
+            if (sparse.includes(fileName) && !currentCommit.trackedFiles.containsKey(fileName)
+                    && commit.trackedFiles.containsKey(fileName)) {
+                throw error("There is an untracked file in the way; delete it, or add and commit it first.");
             }
         }
 
-        // Check out all the files tracked by the given commit.
-        commit.trackedFiles.forEach((fileName, fileID) -> {
-            File src = join(BLOBS_DIR, fileID);
-            File des = join(CWD, fileName);
-            try {
-                Files.copy(src.toPath(), des.toPath(), REPLACE_EXISTING);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        // Check out all the files tracked by the given commit that the sparse checkout includes.
+        StatIndex index = StatIndex.load();
+        try {
+            WorkingTree.checkout(sparse.select(commit.trackedFiles), index);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         // Remove tracked files that are not present in that commit.
-        for (String fileName : currentCommit.trackedFiles.keySet()) {
-            if (!commit.trackedFiles.containsKey(fileName)) {
-                File fileToDelete = join(CWD, fileName);
-                safeDelete(fileToDelete);
+        Tree.diff(currentCommit.trackedFiles, commit.trackedFiles, (fileName, currentID, checkedOutID) -> {
+            if (checkedOutID == null) {
+                WorkingTree.delete(fileName);
+                index.remove(fileName);
             }
-        }
+        });
+        Journal.afterCommit(index::save);
 
-        gitletState.HEAD = commitID;
+        gitletState.HEAD = commit.UID;
         gitletState.branches.put(gitletState.currentBranch, gitletState.HEAD);
         gitletState.stagedFilesForAddition.clear();
         clearDir(STAGING_DIR);
@@ -500,52 +695,55 @@ public class Repository {
         State gitletState = getState();
         // If there are staged additions or removals
         if (!gitletState.stagedFilesForAddition.isEmpty() || !gitletState.stagedFilesForRemoval.isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
         }
 
         // If attempting to merge a branch with itself
         if (branchName.equals(gitletState.currentBranch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
 
         String givenBranch = gitletState.branches.get(branchName);
         // If a branch with the given name does not exist
         if (givenBranch == null) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
 
         String currentBranch = gitletState.HEAD;
         Commit HEAD = getCommit(currentBranch);
         Commit Other = getCommit(givenBranch);
         Commit Split = getSplitPoint(currentBranch, givenBranch);
+        // Branches fetched from an unrelated repository share no history.
+        if (Split == null) {
+            throw error("Given branch has no common ancestor with the current branch.");
+        }
 
         // If the split point is the same commit as the given branch, then we do nothing.
         if (Other.UID.equals(Split.UID)) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            throw error("Given branch is an ancestor of the current branch.");
         }
-        // If the split point is the current branch, then the effect is to check out the given branch.
+        /* If the split point is the current branch, then the effect is to check out the given branch's commit.
+           The current branch moves to it, so that pulling a remote branch brings the current branch up to date. */
         if (HEAD.UID.equals(Split.UID)) {
-            checkoutBranch(branchName);
+            reset(Other.UID);
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            return;
         }
 
         boolean conflict = false;
 
         Commit newCommit = (Commit) HEAD.clone();
 
+        /* Files the given branch left as they were at the split point keep their version in HEAD,
+           so only the files it changed need handling, and unchanged directories are skipped. */
         HashSet<String> namesOfAllFilesToHandle = new HashSet<>();
-        namesOfAllFilesToHandle.addAll(HEAD.trackedFiles.keySet());
-        namesOfAllFilesToHandle.addAll(Other.trackedFiles.keySet());
-        namesOfAllFilesToHandle.addAll(Split.trackedFiles.keySet());
+        Tree.diff(Split.trackedFiles, Other.trackedFiles,
+                (fileName, fileID_Split, fileID_Other) -> namesOfAllFilesToHandle.add(fileName));
 
         HashMap<String, String> filesToAdd = new HashMap<>();// Names and IDs
         HashSet<String> filesToRemove = new HashSet<>();// Names
-        HashMap<String, String> conflictFiles = new HashMap<>();// Names and contents
+        HashMap<String, byte[]> mergedFiles = new HashMap<>();// Names and contents
+        HashSet<String> conflictedFiles = new HashSet<>();// Names
 
         for (String fileName : namesOfAllFilesToHandle) {
             String fileID_Split = Split.trackedFiles.get(fileName);
@@ -596,68 +794,73 @@ public class Repository {
             } else if (in_Split && unmodified_in_Other && not_in_HEAD) {
                 ;
 
-                // 8. Modified in different ways -->conflict
+                /* 8. Modified in different ways -->merge the changed lines, marking those changed in
+                   different ways as conflicts, or the whole file if one side deleted it */
             } else if (not_in_the_same_way) {
-                conflict = true;
-
-
-                String str = "<<<<<<< HEAD\n";
-                if (in_HEAD) {
-                    File fileInHEAD = join(BLOBS_DIR, fileID_HEAD);
-                    str = str + readContentsAsString(fileInHEAD);
+                byte[] contents_HEAD = in_HEAD ? ObjectStore.readBlob(fileID_HEAD) : new byte[0];
+                byte[] contents_Other = in_Other ? ObjectStore.readBlob(fileID_Other) : new byte[0];
+                Merge3 merged;
+                if (in_HEAD && in_Other) {
+                    byte[] contents_Split = in_Split ? ObjectStore.readBlob(fileID_Split) : new byte[0];
+                    merged = Merge3.merge(contents_Split, contents_HEAD, contents_Other);
+                } else {
+                    merged = Merge3.conflict(contents_HEAD, contents_Other);
                 }
-                str = str + "=======\n";
-                if (in_Other) {
-                    File fileInOther = join(BLOBS_DIR, fileID_Other);
-                    str = str + readContentsAsString(fileInOther);
+                if (merged.conflicts > 0) {
+                    conflict = true;
+                    conflictedFiles.add(fileName);
                 }
-                str = str + ">>>>>>>\n";
-
-                conflictFiles.put(fileName, str);
+                mergedFiles.put(fileName, merged.contents);
             }
 
         }
 
         /* **************** No files or objects are saved or deleted above! ************************************* */
 
+        /* Only files that the sparse checkout includes are written, except for conflicts,
+           which are left in the working directory to be resolved. */
+        SparseCheckout sparse = SparseCheckout.of(gitletState);
+        filesToAdd.keySet().removeIf(fileName -> !sparse.includes(fileName));
+
         // Check if an untracked file in the current commit would be overwritten or deleted by the merge
         for (String fileName : filesToAdd.keySet()) {
             File file = join(CWD, fileName);
             if (file.exists() && !HEAD.trackedFiles.containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
+                throw error("There is an untracked file in the way; delete it, or add and commit it first.");
             }
         }
         for (String fileName : filesToRemove) {
             File file = join(CWD, fileName);
             if (file.exists() && !HEAD.trackedFiles.containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
+                throw error("There is an untracked file in the way; delete it, or add and commit it first.");
             }
         }
 
-        filesToAdd.forEach((fileName, fileID) -> {
-            File src = join(BLOBS_DIR, fileID);
-            File des = join(CWD, fileName);
-            try {
-                Files.copy(src.toPath(), des.toPath(), REPLACE_EXISTING);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        StatIndex index = StatIndex.load();
+        try {
+            WorkingTree.checkout(filesToAdd, index);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
 
         for (String fileName : filesToRemove) {
-            File fileToRemove = join(CWD, fileName);
-            safeDelete(fileToRemove);
+            WorkingTree.delete(fileName);
+            index.remove(fileName);
         }
 
-        conflictFiles.forEach((fileName, contents) -> {
-            String conflictedFileID = sha1(contents);
-            newCommit.trackedFiles.put(fileName, conflictedFileID);
-            File conflictedFile = join(CWD, fileName);
-            writeContents(conflictedFile, contents);
-            writeContents(join(BLOBS_DIR, conflictedFileID), contents);
+        mergedFiles.forEach((fileName, contents) -> {
+            String mergedFileID = sha1(contents);
+            newCommit.trackedFiles.put(fileName, mergedFileID);
+            ObjectStore.writeBlob(mergedFileID, contents);
+            if (!sparse.includes(fileName) && !conflictedFiles.contains(fileName)) {
+                return;
+            }
+            File mergedFile = join(CWD, fileName);
+            mergedFile.getParentFile().mkdirs();
+            Journal.write(mergedFile, contents);
+            Journal.afterCommit(() -> index.record(fileName, mergedFileID));
         });
+        Journal.afterCommit(index::save);
 
         if (conflict) {
             System.out.println("Encountered a merge conflict.");
@@ -669,11 +872,10 @@ public class Repository {
         newCommit.parents = new LinkedList<>();
         newCommit.parents.add(currentBranch);
         newCommit.parents.add(givenBranch);
-        newCommit.UID = sha1(serialize(newCommit));
+        newCommit.UID = sha1(newCommit.encode());
         newCommit.save();
 
         gitletState.HEAD = newCommit.UID;
-        gitletState.shortIDs.put(newCommit.UID.substring(0, 8), newCommit.UID);
         gitletState.branches.put(gitletState.currentBranch, gitletState.HEAD);
         gitletState.save();
     }
@@ -0,0 +1,155 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * The part of the tracked files that is put into the working directory.
+ * <p></p>
+ * A sparse checkout is a set of patterns, each the path of a file or a directory relative to the working
+ * directory, and includes the files they name and the files under the directories they name. Without
+ * patterns, every file is included. The patterns are kept in the gitlet state, and set with
+ * "sparse-checkout set PATTERN...".
+ * <p></p>
+ * checkout of a branch, reset and merge only write the files that are included, and status, diff
+ * and add only look at those. Files that are not included stay tracked as they are in the head commit,
+ * and commits keep them unchanged. Directories are matched as a whole, so commands only read the trees of
+ * directories that hold included files, like git's cone mode.
+ *
+ * @author Sol1tudeRain
+ */
+class SparseCheckout {
+
+    /**
+     * The sparse checkout without patterns, which includes every file
+     */
+    static final SparseCheckout ALL = new SparseCheckout(List.of());
+
+    private final TreeSet<String> patterns;
+
+    SparseCheckout(Collection<String> patterns) {
+        this.patterns = new TreeSet<>(patterns);
+    }
+
+    /**
+     * Return the sparse checkout of the repository with the given state.
+     */
+    static SparseCheckout of(State gitletState) {
+        return new SparseCheckout(gitletState.sparsePatterns);
+    }
+
+    /**
+     * Return true if the file or directory PATH is included, i.e. it is named by a pattern or is under one.
+     */
+    boolean includes(String path) {
+        if (patterns.isEmpty() || patterns.contains(path)) {
+            return true;
+        }
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (patterns.contains(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return true if the directory DIR may hold included files.
+     */
+    boolean reaches(String dir) {
+        if (includes(dir)) {
+            return true;
+        }
+        String under = patterns.ceiling(dir + "/");
+        return under != null && under.startsWith(dir + "/");
+    }
+
+    /**
+     * Return the included files of TREE, as a map from paths to blob IDs.
+     */
+    Map<String, String> select(Tree tree) {
+        if (patterns.isEmpty()) {
+            return tree;
+        }
+        Map<String, String> files = new LinkedHashMap<>();
+        tree.forEach(this, files::put);
+        return files;
+    }
+
+    /**
+     * Print the patterns of the current sparse checkout, one per line.
+     */
+    static void list() {
+        for (String pattern : new TreeSet<>(getState().sparsePatterns)) {
+            System.out.println(pattern);
+        }
+    }
+
+    /**
+     * Make PATTERNS the patterns of the sparse checkout, or include every file again if there are none.
+     * Tracked files that are no longer included are deleted from the working directory,
+     * and those that are newly included are checked out. Local changes are never lost:
+     * the patterns are not changed while files are staged, or while a file that would be deleted
+     * or overwritten differs from its version in the head commit.
+     */
+    static void set(List<String> patterns) {
+        TreeSet<String> paths = new TreeSet<>();
+        for (String pattern : patterns) {
+            String path = pattern.replace('\\', '/');
+            while (path.startsWith("./")) {
+                path = path.substring(2);
+            }
+            while (path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            if (path.isEmpty() || path.startsWith("/") || List.of(path.split("/")).contains("..")) {
+                throw error("Patterns must be paths inside the working directory.");
+            }
+            paths.add(path);
+        }
+
+        State gitletState = getState();
+        if (!gitletState.stagedFilesForAddition.isEmpty() || !gitletState.stagedFilesForRemoval.isEmpty()) {
+            throw error("You have uncommitted changes.");
+        }
+        SparseCheckout before = of(gitletState);
+        SparseCheckout after = new SparseCheckout(paths);
+        Commit currentCommit = getCommit(gitletState.HEAD);
+        StatIndex index = StatIndex.load();
+
+        Map<String, String> toWrite = new LinkedHashMap<>();
+        currentCommit.trackedFiles.forEach((fileName, fileID) -> {
+            boolean included = after.includes(fileName);
+            if (included == before.includes(fileName)) {
+                return;
+            }
+            String workingID = TreeWatcher.hash(index, fileName);
+            if (workingID != null && !workingID.equals(fileID)) {
+                throw error("There is a modified file in the way; commit or restore it first.");
+            }
+            if (included) {
+                toWrite.put(fileName, fileID);
+            } else if (workingID != null) {
+                WorkingTree.delete(fileName);
+                index.remove(fileName);
+            }
+        });
+        try {
+            WorkingTree.checkout(toWrite, index);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        Journal.afterCommit(index::save);
+
+        gitletState.sparsePatterns.clear();
+        gitletState.sparsePatterns.addAll(paths);
+        gitletState.save();
+    }
+}
@@ -0,0 +1,256 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Saves the changes in the working directory and the staging area, so that the working directory
+ * can be made clean, e.g. to check out another branch, and brings them back later.
+ * <p></p>
+ * Like git, a stash entry is a commit whose tracked files are the working files, tracked and untracked,
+ * and whose first parent is the head commit it was made on. If files were staged, its second parent is a
+ * commit of the staging area, also made on the head commit. Both copy the tree of the head commit and
+ * change it, so they share every unchanged directory with it, and only the working files that differ
+ * from the head commit are stored, each as a delta against its version there when that is smaller.
+ * Blobs that are already stored are not stored again. So a stash costs about the bytes that changed.
+ * <p></p>
+ * The entries are kept in the gitlet state, newest first, and gc keeps the commits they reach.
+ *
+ * @author Sol1tudeRain
+ */
+class Stash {
+
+    /**
+     * Save the working files and the staging area as a new stash entry, and reset the working
+     * directory to the head commit: tracked files get their version there back, untracked files are
+     * deleted, and the staging area is cleared. Files that the sparse checkout leaves out are left alone.
+     */
+    static void push() throws CloneNotSupportedException, IOException {
+        State gitletState = getState();
+        Commit head = getCommit(gitletState.HEAD);
+        SparseCheckout sparse = SparseCheckout.of(gitletState);
+        StatIndex index = StatIndex.load();
+
+        // Working files that differ from the head commit are copied into the staging area, like for add.
+        List<String> workingFiles = TreeWatcher.files();
+        Map<String, String> workingIDs = WorkingTree.stage(workingFiles, index, head.trackedFiles);
+
+        Commit staged = null;
+        if (!gitletState.stagedFilesForAddition.isEmpty() || !gitletState.stagedFilesForRemoval.isEmpty()) {
+            staged = entry(head, "index on " + gitletState.currentBranch);
+            for (Map.Entry<String, String> file : gitletState.stagedFilesForAddition.entrySet()) {
+                store(file.getValue(), head.trackedFiles.get(file.getKey()));
+                staged.trackedFiles.put(file.getKey(), file.getValue());
+            }
+            for (String fileName : gitletState.stagedFilesForRemoval) {
+                staged.trackedFiles.remove(fileName);
+            }
+        }
+
+        Commit stash = entry(head, "WIP on " + gitletState.currentBranch);
+        for (String fileName : workingFiles) {
+            String fileID = workingIDs.get(fileName);
+            store(fileID, head.trackedFiles.get(fileName));
+            stash.trackedFiles.put(fileName, fileID);
+        }
+        Set<String> present = new HashSet<>(workingFiles);
+        head.trackedFiles.forEach(sparse, (fileName, fileID) -> {
+            if (!present.contains(fileName)) {
+                stash.trackedFiles.remove(fileName);
+            }
+        });
+        if (staged == null && stash.trackedFiles.id().equals(head.trackedFiles.id())) {
+            throw error("No local changes to save.");
+        }
+
+        if (staged != null) {
+            staged.UID = sha1(staged.encode());
+            staged.save();
+            stash.parents.add(staged.UID);
+        }
+        stash.UID = sha1(stash.encode());
+        stash.save();
+
+        // The working directory goes back to the head commit.
+        WorkingTree.checkout(sparse.select(head.trackedFiles), index);
+        for (String fileName : workingFiles) {
+            if (!head.trackedFiles.containsKey(fileName)) {
+                WorkingTree.delete(fileName);
+                index.remove(fileName);
+            }
+        }
+        Journal.afterCommit(index::save);
+
+        clearDir(STAGING_DIR);
+        gitletState.stagedFilesForAddition.clear();
+        gitletState.stagedFilesForRemoval.clear();
+        gitletState.stashes.addFirst(stash.UID);
+        gitletState.save();
+    }
+
+    /**
+     * Return a new commit on HEAD, with a copy of its tracked files, to be changed into a stash entry
+     * with a message starting with DESCRIPTION.
+     */
+    private static Commit entry(Commit head, String description) throws CloneNotSupportedException {
+        Commit commit = (Commit) head.clone();
+        SimpleDateFormat formatter = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy ZZZZ", Locale.ENGLISH);
+        commit.date = formatter.format(new Date());
+        commit.message = description + ": " + head.UID.substring(0, 7) + " " + head.message;
+        commit.parents = new LinkedList<>();
+        commit.parents.add(head.UID);
+        return commit;
+    }
+
+    /**
+     * Store the blob with the given ID from its copy in the staging area, as a delta against the blob
+     * BASEID if that is smaller. Blobs that are already stored, e.g. unchanged files, are skipped.
+     */
+    private static void store(String fileID, String baseID) throws IOException {
+        if (!fileID.equals(baseID)) {
+            ObjectStore.writeBlob(fileID, join(STAGING_DIR, fileID), baseID);
+        }
+    }
+
+    /**
+     * Print the stash entries, newest first.
+     */
+    static void list() {
+        List<String> stashes = getState().stashes;
+        for (int i = 0; i < stashes.size(); i += 1) {
+            System.out.println("stash@{" + i + "}: " + getCommit(stashes.get(i)).message);
+        }
+    }
+
+    /**
+     * Remove the newest stash entry without applying it.
+     */
+    static void drop() {
+        State gitletState = getState();
+        if (gitletState.stashes.isEmpty()) {
+            throw error("No stash entries exist.");
+        }
+        gitletState.stashes.removeFirst();
+        gitletState.save();
+    }
+
+    /**
+     * Apply the newest stash entry to the working directory and the staging area, and remove it.
+     * <p></p>
+     * The changes the entry made to the commit it was made on are applied to the head commit, which need
+     * not be the same: files the head commit has as they were get the stashed version, and files changed
+     * on both sides are merged line by line. If that leaves conflicts, the entry is kept. Files staged
+     * in the entry are staged again. Nothing is changed if a file to be written has local changes.
+     */
+    static void pop() {
+        State gitletState = getState();
+        if (gitletState.stashes.isEmpty()) {
+            throw error("No stash entries exist.");
+        }
+        if (!gitletState.stagedFilesForAddition.isEmpty() || !gitletState.stagedFilesForRemoval.isEmpty()) {
+            throw error("You have uncommitted changes.");
+        }
+        Commit stash = getCommit(gitletState.stashes.getFirst());
+        Commit base = getCommit(stash.parents.get(0));
+        Commit staged = stash.parents.size() > 1 ? getCommit(stash.parents.get(1)) : null;
+        Commit head = getCommit(gitletState.HEAD);
+        SparseCheckout sparse = SparseCheckout.of(gitletState);
+        StatIndex index = StatIndex.load();
+
+        Map<String, String> toWrite = new HashMap<>();// Names and IDs
+        Set<String> toDelete = new HashSet<>();// Names
+        Map<String, byte[]> mergedFiles = new HashMap<>();// Names and contents
+        boolean[] conflict = {false};
+        Tree.diff(base.trackedFiles, stash.trackedFiles, (fileName, baseID, stashID) -> {
+            String headID = head.trackedFiles.get(fileName);
+            String workingID = TreeWatcher.hash(index, fileName);
+            // A file that the sparse checkout leaves out is missing, but has no local changes.
+            if (workingID == null && !sparse.includes(fileName)) {
+                workingID = headID;
+            }
+            if (!Objects.equals(workingID, headID)) {
+                if (headID == null) {
+                    throw error("There is an untracked file in the way; delete it, or add and commit it first.");
+                }
+                throw error("There is a modified file in the way; commit or restore it first.");
+            }
+
+            if (Objects.equals(headID, stashID)) {
+                return;
+            } else if (Objects.equals(headID, baseID)) {
+                if (stashID == null) {
+                    toDelete.add(fileName);
+                } else {
+                    toWrite.put(fileName, stashID);
+                }
+                return;
+            }
+            byte[] headContents = headID == null ? new byte[0] : ObjectStore.readBlob(headID);
+            byte[] stashContents = stashID == null ? new byte[0] : ObjectStore.readBlob(stashID);
+            Merge3 merged;
+            if (headID != null && stashID != null) {
+                byte[] baseContents = baseID == null ? new byte[0] : ObjectStore.readBlob(baseID);
+                merged = Merge3.merge(baseContents, headContents, stashContents);
+            } else {
+                merged = Merge3.conflict(headContents, stashContents);
+            }
+            if (merged.conflicts > 0) {
+                conflict[0] = true;
+            }
+            mergedFiles.put(fileName, merged.contents);
+        });
+
+        try {
+            WorkingTree.checkout(toWrite, index);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        for (String fileName : toDelete) {
+            WorkingTree.delete(fileName);
+            index.remove(fileName);
+        }
+        mergedFiles.forEach((fileName, contents) -> {
+            File mergedFile = join(CWD, fileName);
+            mergedFile.getParentFile().mkdirs();
+            Journal.write(mergedFile, contents);
+        });
+        Journal.afterCommit(index::save);
+
+        // Files staged in the entry are staged again, unless the head commit already has them that way.
+        if (staged != null) {
+            Tree.diff(base.trackedFiles, staged.trackedFiles, (fileName, baseID, stagedID) -> {
+                String headID = head.trackedFiles.get(fileName);
+                if (stagedID == null) {
+                    if (headID != null) {
+                        gitletState.stagedFilesForRemoval.add(fileName);
+                    }
+                } else if (!stagedID.equals(headID)) {
+                    byte[] contents = ObjectStore.readBlob(stagedID);
+                    Journal.write(join(STAGING_DIR, stagedID), Compression.compress(contents, ObjectStore.codec));
+                    gitletState.stagedFilesForAddition.put(fileName, stagedID);
+                }
+            });
+        }
+
+        if (conflict[0]) {
+            System.out.println("Encountered a merge conflict.");
+        } else {
+            gitletState.stashes.removeFirst();
+        }
+        gitletState.save();
+    }
+}
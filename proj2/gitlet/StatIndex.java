@@ -0,0 +1,248 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Remembers the size, modification time, inode and SHA-1 value of working files,
+ * so that a file whose stat data has not changed since it was last hashed is not read again.
+ * <p></p>
+ * Like git's index, an entry whose modification time is not older than the index file itself
+ * is "racy": the file may have been changed again within the same clock tick, so it is rehashed.
+ * Files may be hashed from several threads at once.
+ *
+ * @author Sol1tudeRain
+ */
+class StatIndex {
+
+    private static final int MAGIC = 0x47535441;
+    private static final int VERSION = 1;
+
+    private static class Entry {
+        final long size;
+        final long mtime;
+        final long inode;
+        final String id;
+
+        Entry(long size, long mtime, long inode, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.id = id;
+        }
+
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime && inode == other.inode;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Modification time of the index file when it was loaded or last saved
+     */
+    private volatile long indexMtime;
+
+    /**
+     * The index last loaded, and the stamp of the file it was loaded from
+     */
+    private static StatIndex cached;
+    private static Object cachedStamp;
+
+    private volatile boolean changed;
+
+    private StatIndex(long indexMtime) {
+        this.indexMtime = indexMtime;
+    }
+
+    /**
+     * Return the index of this repository, or an empty one if there is none yet.
+     * The index is kept in memory and only read again once the index file changes.
+     */
+    static StatIndex load() {
+        Object stamp = MyUtils.stamp(INDEX_PATH);
+        if (cached == null || !Objects.equals(stamp, cachedStamp)) {
+            cached = read();
+            cachedStamp = stamp;
+        }
+        return cached;
+    }
+
+    private static StatIndex read() {
+        if (!INDEX_PATH.isFile()) {
+            return new StatIndex(0);
+        }
+        StatIndex index = new StatIndex(INDEX_PATH.lastModified());
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(INDEX_PATH.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return new StatIndex(0);
+            }
+            int count = in.readInt();
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                String fileName = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                in.readFully(id);
+                index.entries.put(fileName, new Entry(size, mtime, inode, toHex(id)));
+            }
+        } catch (IOException e) {
+            // The index is only a cache, so a damaged one is simply rebuilt.
+            return new StatIndex(0);
+        }
+        return index;
+    }
+
+    /**
+     * Save the index if it has changed since it was loaded.
+     */
+    void save() {
+        if (!changed) {
+            return;
+        }
+        File temp = Journal.temp(INDEX_PATH);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.write(fromHex(entry.id));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        // The index is only a cache, so it is replaced at once but not synced.
+        try {
+            Files.move(temp.toPath(), INDEX_PATH.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        changed = false;
+        indexMtime = INDEX_PATH.lastModified();
+        if (cached == this) {
+            cachedStamp = MyUtils.stamp(INDEX_PATH);
+        }
+    }
+
+    /**
+     * Return the current stat data of FILE with the given ID, or null if FILE does not exist.
+     */
+    private static Entry stat(File file, String id) {
+        Path path = file.toPath();
+        Map<String, Object> attributes;
+        try {
+            try {
+                attributes = Files.readAttributes(path, "unix:size,lastModifiedTime,ino");
+            } catch (UnsupportedOperationException e) {
+                attributes = Files.readAttributes(path, "size,lastModifiedTime");
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        long size = (Long) attributes.get("size");
+        long mtime = ((FileTime) attributes.get("lastModifiedTime")).toMillis();
+        Object inode = attributes.get("ino");
+        return new Entry(size, mtime, inode == null ? 0 : (Long) inode, id);
+    }
+
+    /**
+     * Return the cached ID of the working file FILENAME if its stat data is unchanged, otherwise null.
+     */
+    private String cachedID(String fileName, Entry current) {
+        Entry entry = entries.get(fileName);
+        if (entry == null || !entry.sameStat(current) || entry.mtime >= indexMtime) {
+            return null;
+        }
+        return entry.id;
+    }
+
+    /**
+     * Reads a working file and returns its SHA-1 value
+     */
+    interface Reader {
+        String read(File file) throws IOException;
+    }
+
+    /**
+     * Return the SHA-1 value of the working file FILENAME, or null if it does not exist.
+     * The file is only read if its stat data differs from the recorded one.
+     */
+    String hash(String fileName) {
+        try {
+            return hash(fileName, Utils::sha1);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Like hash(FILENAME), but the file is read by READER if it has to be read at all,
+     * e.g. to copy it while hashing it.
+     */
+    String hash(String fileName, Reader reader) throws IOException {
+        File file = join(CWD, fileName);
+        Entry current = stat(file, null);
+        if (current == null) {
+            remove(fileName);
+            return null;
+        }
+        String id = cachedID(fileName, current);
+        if (id == null) {
+            id = reader.read(file);
+            entries.put(fileName, new Entry(current.size, current.mtime, current.inode, id));
+            changed = true;
+        }
+        return id;
+    }
+
+    /**
+     * Return true if the working file FILENAME is known to have the given ID without reading it.
+     */
+    boolean matches(String fileName, String id) {
+        Entry current = stat(join(CWD, fileName), null);
+        return current != null && id.equals(cachedID(fileName, current));
+    }
+
+    /**
+     * Record that the working file FILENAME has just been written with the contents of the given ID.
+     */
+    void record(String fileName, String id) {
+        Entry current = stat(join(CWD, fileName), id);
+        if (current != null) {
+            entries.put(fileName, current);
+            changed = true;
+        }
+    }
+
+    /**
+     * Forget the working file FILENAME.
+     */
+    void remove(String fileName) {
+        if (entries.remove(fileName) != null) {
+            changed = true;
+        }
+    }
+}
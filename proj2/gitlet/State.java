@@ -6,7 +6,7 @@ import java.util.HashSet;
 import java.util.LinkedList;
 
 import static gitlet.Repository.STATE_PATH;
-import static gitlet.Utils.writeObject;
+import static gitlet.Utils.*;
 
 /**
  * This class stores the status of gitlet
@@ -17,6 +17,18 @@ import static gitlet.Utils.writeObject;
  */
 public class State implements Serializable {
 
+    /**
+     * Fixed to the value Java derived for the original class, so that states
+     * saved with Java serialization by older versions of gitlet can still be read.
+     */
+    private static final long serialVersionUID = -3812198369016117604L;
+
+    /**
+     * "GLS", the magic number of an encoded state, and the current encoding version
+     */
+    private static final int MAGIC = 0x474c53;
+    private static final int VERSION = 6;
+
     /**
      * Stores branch name and SHA-1 value pairs
      */
@@ -34,23 +46,163 @@ public class State implements Serializable {
     public HashSet<String> stagedFilesForRemoval;
 
     /**
-     * Map abbreviated commit UID to full UID
+     * Config option names and values of this repository
+     */
+    public HashMap<String, String> config;
+
+    /**
+     * Remote names and the paths of their .gitlet directories
+     */
+    public HashMap<String, String> remotes;
+
+    /**
+     * Patterns of the sparse checkout, empty if every tracked file is checked out
      */
-    public HashMap<String, String> shortIDs;
+    public HashSet<String> sparsePatterns;
+
+    /**
+     * IDs of the commits of the stash entries, newest first
+     */
+    public LinkedList<String> stashes;
 
     State() {
         this.branches = new HashMap<>();
         this.currentBranch = "master";
         this.stagedFilesForAddition = new HashMap<>();
         this.stagedFilesForRemoval = new HashSet<>();
-        this.shortIDs = new HashMap<>();
+        this.config = new HashMap<>();
+        this.remotes = new HashMap<>();
+        this.sparsePatterns = new HashSet<>();
+        this.stashes = new LinkedList<>();
+    }
+
+    /**
+     * Return the binary encoding of this state. File and branch names are interned.
+     */
+    public byte[] encode() {
+        Codec.Output out = new Codec.Output();
+        out.writeVarint(branches.size());
+        branches.forEach((branchName, commitID) -> {
+            out.writeInterned(branchName);
+            out.writeID(commitID);
+        });
+        out.writeOptionalID(HEAD);
+        out.writeInterned(currentBranch);
+        out.writeVarint(stagedFilesForAddition.size());
+        stagedFilesForAddition.forEach((fileName, fileID) -> {
+            out.writeInterned(fileName);
+            out.writeID(fileID);
+        });
+        out.writeVarint(stagedFilesForRemoval.size());
+        for (String fileName : stagedFilesForRemoval) {
+            out.writeInterned(fileName);
+        }
+
+        out.writeVarint(config.size());
+        config.forEach((name, value) -> {
+            out.writeString(name);
+            out.writeString(value);
+        });
+
+        out.writeVarint(remotes.size());
+        remotes.forEach((name, path) -> {
+            out.writeString(name);
+            out.writeString(path);
+        });
+
+        out.writeVarint(sparsePatterns.size());
+        for (String pattern : sparsePatterns) {
+            out.writeString(pattern);
+        }
+
+        out.writeVarint(stashes.size());
+        for (String commitID : stashes) {
+            out.writeID(commitID);
+        }
+        return out.toByteArray(MAGIC, VERSION);
+    }
+
+    /**
+     * Return the state stored as BYTES, which are either produced by encode() or,
+     * for older repositories, by Java serialization. A state read from the old format
+     * is written in the new one the next time it is saved.
+     */
+    public static State decode(byte[] bytes) {
+        if (!Codec.hasMagic(bytes, MAGIC)) {
+            State state = deserialize(bytes, State.class);
+            if (state.config == null) {
+                state.config = new HashMap<>();
+            }
+            if (state.remotes == null) {
+                state.remotes = new HashMap<>();
+            }
+            if (state.sparsePatterns == null) {
+                state.sparsePatterns = new HashSet<>();
+            }
+            if (state.stashes == null) {
+                state.stashes = new LinkedList<>();
+            }
+            return state;
+        }
+        Codec.Input in = new Codec.Input(bytes, MAGIC);
+        State state = new State();
+        int branchCount = in.readInt();
+        for (int i = 0; i < branchCount; i += 1) {
+            state.branches.put(in.readInterned(), in.readID());
+        }
+        state.HEAD = in.readOptionalID();
+        state.currentBranch = in.readInterned();
+        int stagedCount = in.readInt();
+        for (int i = 0; i < stagedCount; i += 1) {
+            state.stagedFilesForAddition.put(in.readInterned(), in.readID());
+        }
+        int removedCount = in.readInt();
+        for (int i = 0; i < removedCount; i += 1) {
+            state.stagedFilesForRemoval.add(in.readInterned());
+        }
+        // Version 1 also listed the commits that abbreviated IDs resolved to, which are now found in the commit graph.
+        if (in.version == 1) {
+            int shortIDCount = in.readInt();
+            for (int i = 0; i < shortIDCount; i += 1) {
+                in.readID();
+            }
+        }
+
+        if (in.version >= 3) {
+            int configCount = in.readInt();
+            for (int i = 0; i < configCount; i += 1) {
+                state.config.put(in.readString(), in.readString());
+            }
+        }
+
+        if (in.version >= 4) {
+            int remoteCount = in.readInt();
+            for (int i = 0; i < remoteCount; i += 1) {
+                state.remotes.put(in.readString(), in.readString());
+            }
+        }
+
+        if (in.version >= 5) {
+            int patternCount = in.readInt();
+            for (int i = 0; i < patternCount; i += 1) {
+                state.sparsePatterns.add(in.readString());
+            }
+        }
+
+        if (in.version >= 6) {
+            int stashCount = in.readInt();
+            for (int i = 0; i < stashCount; i += 1) {
+                state.stashes.add(in.readID());
+            }
+        }
+        return state;
     }
 
     /**
-     * Save the state object
+     * Save the state object when the current batch of changes is committed
      */
     public void save() {
-        writeObject(STATE_PATH, this);
+        Journal.write(STATE_PATH, encode());
     }
 
 }
@@ -0,0 +1,399 @@
+package gitlet;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/**
+ * The files tracked by a commit, as a tree of directories like git's tree objects.
+ * <p></p>
+ * A tree holds the files directly in its directory and a subtree for each subdirectory. It is stored
+ * as an object of its own, whose ID is the SHA-1 value of its encoding, so it names the whole directory
+ * with everything under it:
+ * <pre>
+ *     file count | (name, blob ID) * count | directory count | (name, tree ID) * count
+ * </pre>
+ * Seen from outside, a tree is a map from paths like "dir/file.txt" to blob IDs.
+ * <p></p>
+ * Trees are shared instead of copied. A tree with an ID is never changed again: changing a file under
+ * it copies the path down to the file, and every other subtree stays shared with the trees it was
+ * copied from. So a commit that changes a few files creates, hashes and stores only the trees of
+ * the directories it changes. Subtrees are read from the object store when they are first looked into,
+ * and recently read trees are kept in memory, so commits that share directories share them in memory too.
+ *
+ * @author Sol1tudeRain
+ */
+class Tree extends AbstractMap<String, String> {
+
+    /**
+     * "GLT", the magic number of an encoded tree, and the current encoding version
+     */
+    private static final int MAGIC = 0x474c54;
+    private static final int VERSION = 1;
+
+    /**
+     * Maximum number of trees kept in memory after they are read
+     */
+    private static final int MAX_CACHED = 1 << 14;
+
+    private static final LinkedHashMap<String, Tree> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Tree> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    /**
+     * Blob IDs of the files in this directory, and subtrees of its subdirectories, by name.
+     * Both are null until a stored tree is read.
+     */
+    private TreeMap<String, String> files;
+    private TreeMap<String, Tree> dirs;
+
+    /**
+     * ID of this tree, or null if it changed since it was last hashed
+     */
+    private String id;
+
+    /**
+     * Whether this tree is in the object store
+     */
+    private boolean stored;
+
+    /**
+     * An empty tree.
+     */
+    Tree() {
+        files = new TreeMap<>();
+        dirs = new TreeMap<>();
+    }
+
+    /**
+     * Return the stored tree with the given ID. It is only read once it is looked into.
+     */
+    static Tree of(String id) {
+        synchronized (cache) {
+            Tree tree = cache.get(id);
+            if (tree == null) {
+                tree = new Tree();
+                tree.files = null;
+                tree.dirs = null;
+                tree.id = id;
+                tree.stored = true;
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * Return a tree of the files in FILES, which maps paths to blob IDs.
+     */
+    static Tree of(Map<String, String> files) {
+        Tree tree = new Tree();
+        files.forEach(tree::put);
+        return tree;
+    }
+
+    /**
+     * Return a copy of this tree that can be changed without changing this one.
+     */
+    Tree copy() {
+        load();
+        id();
+        Tree copy = new Tree();
+        copy.files.putAll(files);
+        copy.dirs.putAll(dirs);
+        copy.id = id;
+        copy.stored = stored;
+        return copy;
+    }
+
+    /**
+     * Read this tree from the object store if it has not been read yet.
+     */
+    private void load() {
+        synchronized (cache) {
+            if (files != null) {
+                return;
+            }
+            byte[] bytes = ObjectStore.readTree(id);
+            if (bytes == null) {
+                throw error("Missing tree %s.", id);
+            }
+            Codec.Input in = new Codec.Input(bytes, MAGIC);
+            TreeMap<String, String> loadedFiles = new TreeMap<>();
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i += 1) {
+                loadedFiles.put(in.readString(), in.readID());
+            }
+            TreeMap<String, Tree> loadedDirs = new TreeMap<>();
+            int dirCount = in.readInt();
+            for (int i = 0; i < dirCount; i += 1) {
+                loadedDirs.put(in.readString(), of(in.readID()));
+            }
+            dirs = loadedDirs;
+            files = loadedFiles;
+            cache.put(id, this);
+        }
+    }
+
+    private byte[] encode() {
+        Codec.Output out = new Codec.Output();
+        out.writeVarint(files.size());
+        files.forEach((name, fileID) -> {
+            out.writeString(name);
+            out.writeID(fileID);
+        });
+        out.writeVarint(dirs.size());
+        dirs.forEach((name, dir) -> {
+            out.writeString(name);
+            out.writeID(dir.id());
+        });
+        return out.toByteArray(MAGIC, VERSION);
+    }
+
+    /**
+     * Return the ID of this tree, hashing the directories that changed since they were last hashed.
+     */
+    String id() {
+        if (id == null) {
+            id = sha1(encode());
+        }
+        return id;
+    }
+
+    /**
+     * Store this tree and those under it that are not stored yet.
+     */
+    void save() {
+        if (stored) {
+            return;
+        }
+        for (Tree dir : dirs.values()) {
+            dir.save();
+        }
+        ObjectStore.writeTree(id(), encode());
+        stored = true;
+    }
+
+    /**
+     * Return the subtree of DIR that can be changed in place, copying it if it may be shared.
+     */
+    private Tree changeable(String dir) {
+        Tree tree = dirs.get(dir);
+        if (tree == null) {
+            tree = new Tree();
+        } else if (tree.id != null) {
+            tree = tree.copy();
+        }
+        tree.id = null;
+        tree.stored = false;
+        dirs.put(dir, tree);
+        return tree;
+    }
+
+    @Override
+    public String get(Object key) {
+        String path = (String) key;
+        Tree tree = this;
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0) {
+            tree.load();
+            tree = tree.dirs.get(path.substring(start, slash));
+            if (tree == null) {
+                return null;
+            }
+            start = slash + 1;
+        }
+        tree.load();
+        return tree.files.get(path.substring(start));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Track the file PATH with the given blob ID. The tree must be a copy, or created by this command.
+     */
+    @Override
+    public String put(String path, String fileID) {
+        String previous = get(path);
+        if (fileID.equals(previous)) {
+            return previous;
+        }
+        id = null;
+        stored = false;
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            files.put(path, fileID);
+        } else {
+            changeable(path.substring(0, slash)).put(path.substring(slash + 1), fileID);
+        }
+        return previous;
+    }
+
+    /**
+     * Stop tracking the file PATH. Directories left empty are removed.
+     */
+    @Override
+    public String remove(Object key) {
+        String path = (String) key;
+        if (get(path) == null) {
+            return null;
+        }
+        id = null;
+        stored = false;
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            return files.remove(path);
+        }
+        String dir = path.substring(0, slash);
+        Tree tree = changeable(dir);
+        String previous = tree.remove(path.substring(slash + 1));
+        if (tree.files.isEmpty() && tree.dirs.isEmpty()) {
+            dirs.remove(dir);
+        }
+        return previous;
+    }
+
+    /**
+     * Call ACTION on the path and blob ID of every file under this tree, whose path starts with PREFIX.
+     */
+    private void forEach(String prefix, BiConsumer<? super String, ? super String> action) {
+        load();
+        files.forEach((name, fileID) -> action.accept(prefix + name, fileID));
+        dirs.forEach((name, dir) -> dir.forEach(prefix + name + "/", action));
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        forEach("", action);
+    }
+
+    /**
+     * Call ACTION on the path and blob ID of every file under this tree that SPARSE includes.
+     * Directories that hold no included files are skipped without being read.
+     */
+    void forEach(SparseCheckout sparse, BiConsumer<? super String, ? super String> action) {
+        forEach("", sparse, action);
+    }
+
+    private void forEach(String prefix, SparseCheckout sparse, BiConsumer<? super String, ? super String> action) {
+        load();
+        files.forEach((name, fileID) -> {
+            if (sparse.includes(prefix + name)) {
+                action.accept(prefix + name, fileID);
+            }
+        });
+        dirs.forEach((name, dir) -> {
+            String path = prefix + name;
+            if (sparse.includes(path)) {
+                dir.forEach(path + "/", action);
+            } else if (sparse.reaches(path)) {
+                dir.forEach(path + "/", sparse, action);
+            }
+        });
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        Set<Map.Entry<String, String>> entries = new LinkedHashSet<>();
+        forEach((path, fileID) -> entries.add(new SimpleImmutableEntry<>(path, fileID)));
+        return Collections.unmodifiableSet(entries);
+    }
+
+    /**
+     * Call ACTION on the path and the blob IDs in A and in B of every file whose blob ID differs
+     * between the trees A and B, with null for a file that one of them lacks. Subtrees with
+     * the same ID are skipped, so this takes time in proportion to the directories that differ.
+     */
+    static void diff(Tree a, Tree b, DiffAction action) {
+        diff("", a, b, action);
+    }
+
+    /**
+     * Receives the differences of two trees.
+     */
+    interface DiffAction {
+        void accept(String path, String idA, String idB);
+    }
+
+    private static void diff(String prefix, Tree a, Tree b, DiffAction action) {
+        if (a != null && b != null && a.id().equals(b.id())) {
+            return;
+        }
+        Tree empty = new Tree();
+        Tree x = a == null ? empty : a;
+        Tree y = b == null ? empty : b;
+        x.load();
+        y.load();
+        TreeMap<String, String> fileNames = new TreeMap<>(x.files);
+        y.files.forEach(fileNames::putIfAbsent);
+        for (String name : fileNames.keySet()) {
+            String idA = x.files.get(name);
+            String idB = y.files.get(name);
+            if (!Objects.equals(idA, idB)) {
+                action.accept(prefix + name, idA, idB);
+            }
+        }
+        TreeMap<String, Tree> dirNames = new TreeMap<>(x.dirs);
+        y.dirs.forEach(dirNames::putIfAbsent);
+        for (String name : dirNames.keySet()) {
+            diff(prefix + name + "/", x.dirs.get(name), y.dirs.get(name), action);
+        }
+    }
+
+    /**
+     * Add the ID of TREE and of every tree under it to TREES, and call BLOBS on the blob ID of every file
+     * under it. Trees already in TREES are skipped, so marking many trees that share directories takes time
+     * in proportion to the directories they do not share.
+     */
+    static void mark(Tree tree, Set<String> trees, Consumer<String> blobs) {
+        if (!trees.add(tree.id())) {
+            return;
+        }
+        tree.load();
+        tree.files.values().forEach(blobs);
+        for (Tree dir : tree.dirs.values()) {
+            mark(dir, trees, blobs);
+        }
+    }
+
+    /**
+     * Call TREES on the ID of B and of every tree under it that A does not have at the same path,
+     * and BLOBS on the path and IDs of every file of B whose blob ID differs from that in A.
+     * A may be null. Subtrees with the same ID are skipped.
+     */
+    static void added(Tree a, Tree b, Consumer<String> trees, DiffAction blobs) {
+        added("", a, b, trees, blobs);
+    }
+
+    private static void added(String prefix, Tree a, Tree b, Consumer<String> trees, DiffAction blobs) {
+        if (a != null && a.id().equals(b.id())) {
+            return;
+        }
+        trees.accept(b.id());
+        Tree x = a == null ? new Tree() : a;
+        x.load();
+        b.load();
+        b.files.forEach((name, fileID) -> {
+            String baseID = x.files.get(name);
+            if (!fileID.equals(baseID)) {
+                blobs.accept(prefix + name, baseID, fileID);
+            }
+        });
+        b.dirs.forEach((name, dir) -> added(prefix + name + "/", x.dirs.get(name), dir, trees, blobs));
+    }
+}
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the working directory for a daemon, so that commands only look at the files
+ * that changed since they were last looked at, instead of listing and stat-ing every file.
+ * <p></p>
+ * The watcher keeps the list of working files, and the ID of every working file it has hashed
+ * since the file last changed. A change event makes it forget the ID of the file, so the next
+ * command hashes it again. Every directory of the working tree is watched, and directories that
+ * appear later are watched from then on.
+ * <p></p>
+ * Events arrive some time after the changes, so before each command sync() writes a cookie file
+ * into the .gitlet directory, which is watched too, and takes events until the cookie shows up.
+ * The file system reports events in order, so by then every change made before the command started
+ * has been seen. If the cookie does not show up in time, or events were lost, the watcher starts
+ * over from a full listing.
+ *
+ * @author Sol1tudeRain
+ */
+class TreeWatcher {
+
+    private static final String COOKIE_PREFIX = "watch-cookie-";
+    private static final long COOKIE_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Marks a file that is known not to exist
+     */
+    private static final String ABSENT = "";
+
+    private static WatchService service;
+    private static WatchKey cookieKey;
+    private static int cookies;
+
+    /**
+     * The watched working directories, as the prefix of the paths of the files in them
+     */
+    private static final Map<WatchKey, String> dirs = new HashMap<>();
+
+    /**
+     * Whether the watcher is in step with the working directory
+     */
+    private static boolean synced;
+
+    private static final TreeSet<String> files = new TreeSet<>();
+    private static final Map<String, String> ids = new HashMap<>();
+
+    /**
+     * Start watching the working directory.
+     */
+    static void start() {
+        try {
+            service = CWD.toPath().getFileSystem().newWatchService();
+            cookieKey = GITLET_DIR.toPath().register(service, ENTRY_CREATE);
+        } catch (IOException e) {
+            throw error("Cannot watch the working directory: %s", e.getMessage());
+        }
+        rescan();
+    }
+
+    private static void rescan() {
+        watch(CWD.toPath());
+        files.clear();
+        files.addAll(WorkingTree.files());
+        ids.clear();
+    }
+
+    /**
+     * Watch DIR and the directories under it, except the .gitlet directory.
+     */
+    private static void watch(Path dir) {
+        Path cwd = CWD.toPath();
+        Path gitlet = GITLET_DIR.toPath();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path) && !path.startsWith(gitlet)) {
+                    String prefix = path.equals(cwd) ? ""
+                            : cwd.relativize(path).toString().replace(File.separatorChar, '/') + "/";
+                    dirs.put(path.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), prefix);
+                }
+            }
+        } catch (IOException e) {
+            // A directory went away while it was walked; its deletion is reported too.
+        }
+    }
+
+    /**
+     * Take the events of all changes made so far. Does nothing unless the watcher is started.
+     */
+    static void sync() {
+        if (service == null) {
+            return;
+        }
+        synced = false;
+        String cookie = COOKIE_PREFIX + cookies;
+        cookies += 1;
+        Path cookiePath = GITLET_DIR.toPath().resolve(cookie);
+        try {
+            Files.write(cookiePath, new byte[0]);
+            long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT_MILLIS;
+            while (!synced) {
+                WatchKey key = service.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    rescan();
+                    break;
+                }
+                if (key == cookieKey) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context().toString().equals(cookie)) {
+                            // Changes of working files seen before the cookie may not have been taken yet.
+                            for (Map.Entry<WatchKey, String> dir : new ArrayList<>(dirs.entrySet())) {
+                                handle(dir.getValue(), dir.getKey().pollEvents());
+                            }
+                            synced = true;
+                        }
+                    }
+                } else if (dirs.containsKey(key)) {
+                    handle(dirs.get(key), key.pollEvents());
+                }
+                if (!key.reset()) {
+                    dirs.remove(key);
+                }
+            }
+        } catch (IOException e) {
+            rescan();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rescan();
+        } finally {
+            try {
+                Files.deleteIfExists(cookiePath);
+            } catch (IOException ignored) {
+
+            }
+        }
+    }
+
+    /**
+     * Take EVENTS of the directory whose files' paths start with PREFIX.
+     */
+    private static void handle(String prefix, List<WatchEvent<?>> events) {
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == OVERFLOW) {
+                rescan();
+                continue;
+            }
+            String fileName = prefix + event.context();
+            if (fileName.equals(GITLET_DIR.getName()) || fileName.endsWith(Journal.TEMP_SUFFIX)) {
+                continue;
+            }
+            ids.remove(fileName);
+            Path path = CWD.toPath().resolve(fileName);
+            if (event.kind() == ENTRY_DELETE) {
+                files.remove(fileName);
+                // It may have been a directory, with files under it.
+                SortedSet<String> under = files.subSet(fileName + "/", fileName + "0");
+                if (!under.isEmpty()) {
+                    under.clear();
+                    ids.keySet().removeIf(name -> name.startsWith(fileName + "/"));
+                }
+            } else if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                // Files may have been put into it before it was watched.
+                watch(path);
+                try {
+                    for (String name : WorkingTree.expand(fileName)) {
+                        files.add(name);
+                        ids.remove(name);
+                    }
+                } catch (IOException e) {
+                    // It went away again; its deletion is reported too.
+                }
+            } else if (event.kind() == ENTRY_CREATE && Files.isRegularFile(path)) {
+                files.add(fileName);
+            }
+        }
+    }
+
+    /**
+     * Return the paths of the working files, in sorted order.
+     */
+    static List<String> files() {
+        if (!synced) {
+            return WorkingTree.files();
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Return the SHA-1 value of the working file FILENAME, or null if it does not exist,
+     * hashing it only if it changed since it was last hashed.
+     */
+    static String hash(StatIndex index, String fileName) {
+        if (!synced) {
+            return index.hash(fileName);
+        }
+        String id = ids.get(fileName);
+        if (id == null) {
+            id = index.hash(fileName);
+            ids.put(fileName, id == null ? ABSENT : id);
+            return id;
+        }
+        return id.equals(ABSENT) ? null : id;
+    }
+
+    /**
+     * Return true if the working file FILENAME is known to have the given ID without reading it.
+     */
+    static boolean matches(StatIndex index, String fileName, String id) {
+        if (synced && ids.containsKey(fileName)) {
+            return ids.get(fileName).equals(id);
+        }
+        return index.matches(fileName, id);
+    }
+}
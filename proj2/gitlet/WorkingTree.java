@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Reads and writes many working files at once on a bounded pool of threads.
+ * <p></p>
+ * Bulk operations are all-or-nothing: files are first written next to their targets
+ * under temporary names, and only renamed into place when the {@link Journal} batch is committed.
+ * If anything fails, the temporary files are deleted and the working directory is left untouched.
+ *
+ * @author Sol1tudeRain
+ */
+class WorkingTree {
+
+    /**
+     * Maximum number of files read or written at the same time
+     */
+    private static final int THREADS = Math.min(16, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * A task that may fail with an IOException
+     */
+    interface IOTask<T> {
+        void run(T item) throws IOException;
+    }
+
+    /**
+     * Run TASK on every one of ITEMS and wait for all of them to finish.
+     * Rethrows the first failure, if any.
+     */
+    static <T> void runAll(Collection<T> items, IOTask<T> task) throws IOException {
+        if (items.size() <= 1) {
+            for (T item : items) {
+                task.run(item);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(THREADS, items.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (T item : items) {
+                futures.add(pool.submit(() -> {
+                    task.run(item);
+                    return null;
+                }));
+            }
+            Throwable failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Return the names of the files denoted by PATH, relative to CWD and normalized, so that e.g.
+     * "./a.txt" and "a.txt" name the same file.
+     * A directory stands for all plain files under it, except those in the .gitlet directory.
+     */
+    static List<String> expand(String path) throws IOException {
+        Path cwd = CWD.toPath().toAbsolutePath().normalize();
+        Path file = cwd.resolve(path).normalize();
+        if (!Files.isDirectory(file)) {
+            return List.of(name(cwd, file));
+        }
+        Path gitlet = GITLET_DIR.toPath().toAbsolutePath().normalize();
+        try (Stream<Path> files = Files.walk(file)) {
+            return files.filter(p -> !p.startsWith(gitlet) && Files.isRegularFile(p))
+                    .map(p -> name(cwd, p))
+                    .filter(name -> !name.endsWith(Journal.TEMP_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String name(Path cwd, Path file) {
+        return cwd.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Return the paths of all working files relative to CWD, in sorted order.
+     */
+    static List<String> files() {
+        try {
+            return expand(".");
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the working file FILENAME when the batch is committed,
+     * along with the directories that are left empty.
+     */
+    static void delete(String fileName) {
+        File file = join(CWD, fileName);
+        Journal.delete(file);
+        Journal.afterCommit(() -> {
+            File dir = file.getParentFile();
+            while (!dir.equals(CWD) && dir.delete()) {
+                dir = dir.getParentFile();
+            }
+        });
+    }
+
+    /**
+     * Hash the working files FILENAMES and copy those that differ from their TRACKEDFILES version
+     * into the staging area, compressed like other objects. Returns the ID of every file.
+     * A file whose stat data changed is hashed while it is copied, so it is only read once.
+     * If any file cannot be staged, the copies made so far are deleted and nothing is staged.
+     */
+    static Map<String, String> stage(List<String> fileNames, StatIndex index,
+                                     Map<String, String> trackedFiles) throws IOException {
+        Map<String, String> ids = new ConcurrentHashMap<>();
+        // Files with the same contents share one copy in the staging area.
+        Set<String> copied = ConcurrentHashMap.newKeySet();
+        Set<File> created = ConcurrentHashMap.newKeySet();
+        try {
+            runAll(fileNames, fileName -> {
+                File temp = Journal.temp(join(STAGING_DIR, sha1(fileName)));
+                boolean[] read = {false};
+                String id = index.hash(fileName, file -> {
+                    read[0] = true;
+                    created.add(temp);
+                    return Compression.compressFile(file, temp, ObjectStore.codec);
+                });
+                ids.put(fileName, id);
+                File des = join(STAGING_DIR, id);
+                if (id.equals(trackedFiles.get(fileName)) || des.exists() || !copied.add(id)) {
+                    if (read[0]) {
+                        temp.delete();
+                    }
+                    return;
+                }
+                if (!read[0]) {
+                    created.add(temp);
+                    Compression.compressFile(join(CWD, fileName), temp, ObjectStore.codec);
+                }
+                Journal.install(temp, des);
+                created.add(des);
+            });
+        } catch (IOException | RuntimeException e) {
+            created.forEach(MyUtils::safeDelete);
+            throw e;
+        }
+        return ids;
+    }
+
+    /**
+     * Put the blobs of FILES, which maps file names to blob IDs, into the working directory
+     * when the batch is committed, skipping files the index knows to be up-to-date.
+     * Either all files are written or none.
+     */
+    static void checkout(Map<String, String> files, StatIndex index) throws IOException {
+        Map<String, String> toWrite = new LinkedHashMap<>();
+        files.forEach((fileName, fileID) -> {
+            if (!TreeWatcher.matches(index, fileName, fileID)) {
+                toWrite.put(fileName, fileID);
+            }
+        });
+
+        Map<String, File> temps = new ConcurrentHashMap<>();
+        try {
+            runAll(toWrite.entrySet(), e -> {
+                File des = join(CWD, e.getKey());
+                des.getParentFile().mkdirs();
+                File temp = Journal.temp(des);
+                temps.put(e.getKey(), temp);
+                ObjectStore.checkoutBlob(e.getValue(), temp);
+            });
+        } catch (IOException | RuntimeException e) {
+            temps.values().forEach(MyUtils::safeDelete);
+            throw e;
+        }
+
+        toWrite.forEach((fileName, fileID) -> {
+            Journal.rename(temps.get(fileName), join(CWD, fileName));
+            Journal.afterCommit(() -> index.record(fileName, fileID));
+        });
+    }
+}
@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Set;
+
+import static gitlet.Repository.*;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Lets only one gitlet process change a repository at a time.
+ * <p></p>
+ * Commands that change the repository hold an exclusive lock on LOCK_PATH while they run,
+ * waiting for any other writer to finish first. Read-only commands do not wait for the lock:
+ * the state is replaced by renaming a new file over it, and objects never change once written,
+ * so a reader always sees a complete snapshot.
+ * <p></p>
+ * Readers still keep derived data up to date, i.e. the stat index, the commit graph, the message
+ * index and the results of blame, but only through tryAcquire(), which takes the lock if no one
+ * holds it and never waits. Before reading anything, a reader that finds the journal of an
+ * interrupted command finishes it in the same way, so it never reads what the journal is about
+ * to replace. tryAcquire() refuses the lock while a journal is pending, so a reader never
+ * writes a journal over one.
+ *
+ * @author Sol1tudeRain
+ */
+class WriterLock {
+
+    /**
+     * Commands that only read the repository
+     */
+    static final Set<String> READ_ONLY_COMMANDS = Set.of("log", "global-log", "find", "status", "diff",
+            "blame", "upload-pack");
+
+    private static FileChannel channel;
+    private static FileLock lock;
+
+    /**
+     * Wait until no other process writes to this repository, then take the lock.
+     */
+    static synchronized void acquire() {
+        lock(true);
+    }
+
+    /**
+     * Take the lock if no other process holds it and no interrupted command is waiting to be
+     * finished. Returns whether the lock is held.
+     */
+    static synchronized boolean tryAcquire() {
+        if (lock != null) {
+            return true;
+        }
+        if (!lock(false)) {
+            return false;
+        }
+        if (JOURNAL_PATH.exists()) {
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finish the changes of an interrupted command, if there are any and no other process holds
+     * the lock, before a reader reads anything. The lock is kept until the command ends.
+     */
+    static synchronized void recoverIfIdle() {
+        if (JOURNAL_PATH.exists() && (lock != null || lock(false))) {
+            Journal.recover();
+        }
+    }
+
+    /**
+     * Take the lock, waiting for it if WAIT is true. Returns whether the lock is held.
+     */
+    private static boolean lock(boolean wait) {
+        if (lock != null) {
+            return true;
+        }
+        try {
+            channel = FileChannel.open(LOCK_PATH.toPath(), WRITE, CREATE);
+            lock = wait ? channel.lock() : channel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            if (wait) {
+                close();
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        if (lock == null) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    private static void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+
+            }
+        }
+        channel = null;
+    }
+
+    static synchronized boolean held() {
+        return lock != null;
+    }
+
+    static synchronized void release() {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+            channel.close();
+        } catch (IOException ignored) {
+
+        }
+        lock = null;
+        channel = null;
+    }
+}